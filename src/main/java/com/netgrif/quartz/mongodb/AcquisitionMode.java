@@ -0,0 +1,25 @@
+package com.netgrif.quartz.mongodb;
+
+import java.util.Locale;
+
+/**
+ * How a scheduler takes exclusive ownership of a trigger it is going to fire.
+ */
+public enum AcquisitionMode {
+
+    /**
+     * Insert a trigger lock into the locks collection (default).
+     */
+    LOCKS,
+
+    /**
+     * Atomically move the trigger document itself from waiting to acquired,
+     * stamping the owner instance and lease time on it. The locks collection
+     * is then used only for jobs that disallow concurrent execution.
+     */
+    CLAIM;
+
+    public static AcquisitionMode fromProperty(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
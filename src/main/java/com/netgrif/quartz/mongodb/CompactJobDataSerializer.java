@@ -0,0 +1,229 @@
+package com.netgrif.quartz.mongodb;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary format of job data maps.
+ *
+ * <p>Strings, boxed primitives, dates, byte arrays, array lists and hash maps
+ * are written as a type tag followed by their value. Only other values are
+ * written with Java serialization, each on its own.</p>
+ */
+public class CompactJobDataSerializer implements JobDataSerializer {
+
+    public static final byte FORMAT_ID = 1;
+
+    private static final String SERIALIZE_MESSAGE_FORMAT =
+            "Unable to serialize JobDataMap for insertion into " +
+            "database because the value of property '%s' " +
+            "is not serializable: %s";
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte DATE = 10;
+    private static final byte BYTES = 11;
+    private static final byte LIST = 12;
+    private static final byte HASH_MAP = 13;
+    private static final byte LINKED_HASH_MAP = 14;
+    private static final byte SERIALIZED = 15;
+
+    @Override
+    public byte getFormatId() {
+        return FORMAT_ID;
+    }
+
+    @Override
+    public byte[] serialize(Map<String, ?> jobData) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(jobData.size());
+        for (Map.Entry<String, ?> entry : jobData.entrySet()) {
+            writeString(out, entry.getKey());
+            try {
+                writeValue(out, entry.getValue());
+            } catch (NotSerializableException e) {
+                throw new NotSerializableException(
+                        String.format(SERIALIZE_MESSAGE_FORMAT, entry.getKey(), e.getMessage()));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Map<String, ?> deserialize(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int size = in.readInt();
+        Map<String, Object> jobData = new HashMap<String, Object>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            jobData.put(readString(in), readValue(in));
+        }
+        return jobData;
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        // Exact classes only, subclasses must come back as they were
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (type == Integer.class) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (type == Long.class) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (type == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (type == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (type == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (type == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (type == Boolean.class) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (type == Character.class) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (type == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (type == byte[].class) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (type == ArrayList.class) {
+            out.writeByte(LIST);
+            List<?> list = (List<?>) value;
+            out.writeInt(list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else if (type == HashMap.class || type == LinkedHashMap.class) {
+            out.writeByte(type == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            out.writeByte(SERIALIZED);
+            writeBytes(out, serializeObject(value));
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case CHARACTER:
+                return in.readChar();
+            case DATE:
+                return new Date(in.readLong());
+            case BYTES:
+                return readBytes(in);
+            case LIST: {
+                int size = in.readInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case HASH_MAP:
+            case LINKED_HASH_MAP: {
+                int size = in.readInt();
+                Map<Object, Object> map = tag == HASH_MAP
+                        ? new HashMap<Object, Object>(capacity(size))
+                        : new LinkedHashMap<Object, Object>(capacity(size));
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(in), readValue(in));
+                }
+                return map;
+            }
+            case SERIALIZED:
+                return deserializeObject(readBytes(in));
+            default:
+                throw new StreamCorruptedException("Unknown job data value type " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+        return value;
+    }
+
+    private static byte[] serializeObject(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserializeObject(byte[] bytes) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int capacity(int size) {
+        return Math.max(16, (int) (size / 0.75f) + 1);
+    }
+}
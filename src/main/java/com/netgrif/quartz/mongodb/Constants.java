@@ -7,10 +7,18 @@ public interface Constants {
   String TRIGGER_NEXT_FIRE_TIME = "nextFireTime";
   String TRIGGER_JOB_ID = "jobId";
   String TRIGGER_STATE = "state";
+  String TRIGGER_CALENDAR_NAME = "calendarName";
+  String TRIGGER_PRIORITY = "priority";
+  String TRIGGER_MISFIRE_INSTRUCTION = "misfireInstruction";
   String LOCK_INSTANCE_ID = "instanceId";
   String LOCK_TIME = "time";
+  String TRIGGER_OWNER = "owner";
+  String TRIGGER_LEASE_TIME = "leaseTime";
+  String TRIGGER_BUCKET = "bucket";
+  String TRIGGER_CHANGED_BY = "changedBy";
 
   String STATE_WAITING = "waiting";
+  String STATE_ACQUIRED = "acquired";
   String STATE_DELETED = "deleted";
   String STATE_COMPLETE = "complete";
   String STATE_PAUSED = "paused";
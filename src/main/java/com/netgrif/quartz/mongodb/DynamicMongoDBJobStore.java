@@ -6,6 +6,8 @@ import org.quartz.spi.ClassLoadHelper;
 
 public class DynamicMongoDBJobStore extends MongoDBJobStore {
 
+    private final DynamicClassLoadHelper classLoadHelper = new DynamicClassLoadHelper();
+
     public DynamicMongoDBJobStore() {
         super();
     }
@@ -20,6 +22,15 @@ public class DynamicMongoDBJobStore extends MongoDBJobStore {
 
     @Override
     protected ClassLoadHelper getClassLoaderHelper(ClassLoadHelper original) {
-        return new DynamicClassLoadHelper();
+        return classLoadHelper;
+    }
+
+    /**
+     * Forget loaded classes, call after namespaces defining jobs are reloaded.
+     */
+    @Override
+    public void clearClassCache() {
+        classLoadHelper.invalidate();
+        super.clearClassCache();
     }
 }
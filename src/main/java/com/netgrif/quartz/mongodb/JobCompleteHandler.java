@@ -21,14 +21,17 @@ public class JobCompleteHandler {
     private final JobDao jobDao;
     private final LocksDao locksDao;
     private TriggerDao triggerDao;
+    private final LockManager lockManager;
 
     public JobCompleteHandler(TriggerAndJobPersister persister, SchedulerSignaler signaler,
-                              JobDao jobDao, LocksDao locksDao, TriggerDao triggerDao) {
+                              JobDao jobDao, LocksDao locksDao, TriggerDao triggerDao,
+                              LockManager lockManager) {
         this.persister = persister;
         this.signaler = signaler;
         this.jobDao = jobDao;
         this.locksDao = locksDao;
         this.triggerDao = triggerDao;
+        this.lockManager = lockManager;
     }
 
     public void jobComplete(OperableTrigger trigger, JobDetail job,
@@ -39,7 +42,7 @@ public class JobCompleteHandler {
             if (job.getJobDataMap().isDirty()) {
                 log.debug("Job data map dirty, will store {}", job.getKey());
                 try {
-                    jobDao.storeJobInMongo(job, true);
+                    jobDao.storeJobData(job);
                 } catch (JobPersistenceException e) {
                     throw new RuntimeException(e);
                 }
@@ -56,7 +59,7 @@ public class JobCompleteHandler {
             throw new RuntimeException(e);
         }
 
-        locksDao.unlockTrigger(trigger);
+        lockManager.unlockAcquiredTrigger(trigger);
     }
 
     private boolean isTriggerDeletionRequested(CompletedExecutionInstruction triggerInstCode) {
@@ -4,6 +4,9 @@ import org.bson.Document;
 import org.quartz.*;
 import org.quartz.spi.ClassLoadHelper;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import static com.netgrif.quartz.mongodb.util.Keys.KEY_GROUP;
 import static com.netgrif.quartz.mongodb.util.Keys.KEY_NAME;
 
@@ -13,9 +16,14 @@ public class JobConverter {
     private static final String JOB_CLASS = "jobClass";
     private static final String JOB_DESCRIPTION = "jobDescription";
     public static final String JOB_REQUESTS_RECOVERY = "requestsRecovery";
+    /**
+     * Incremented with every store of the job, so cached jobs can be validated.
+     */
+    public static final String JOB_VERSION = "version";
 
     private ClassLoadHelper loadHelper;
     private final JobDataConverter jobDataConverter;
+    private final ConcurrentMap<String, Class<Job>> jobClasses = new ConcurrentHashMap<String, Class<Job>>();
 
     public JobConverter(ClassLoadHelper loadHelper, JobDataConverter jobDataConverter) {
         this.loadHelper = loadHelper;
@@ -44,26 +52,52 @@ public class JobConverter {
      */
     public JobDetail toJobDetail(Document doc) throws JobPersistenceException {
         try {
-            // Make it possible for subclasses to use custom class loaders.
-            // When Quartz jobs are implemented as Clojure records, the only way to use
-            // them without switching to gen-class is by using a
-            // clojure.lang.DynamicClassLoader instance.
-            @SuppressWarnings("unchecked")
-            Class<Job> jobClass = (Class<Job>) loadHelper.getClassLoader()
-                    .loadClass(doc.getString(JOB_CLASS));
+            Class<Job> jobClass = loadJobClass(doc.getString(JOB_CLASS));
 
             JobBuilder builder = createJobBuilder(doc, jobClass);
             withDurability(doc, builder);
             withRequestsRecovery(doc, builder);
             JobDataMap jobData = createJobDataMap(doc);
-            return builder.usingJobData(jobData).build();
+            // set rather than copied, copying would read lazy job data
+            return builder.setJobData(jobData).build();
         } catch (ClassNotFoundException e) {
             throw new JobPersistenceException("Could not load job class " + doc.get(JOB_CLASS), e);
         }
     }
 
+    /**
+     * Forget resolved job classes, so they are loaded again, e.g. after they were redefined.
+     */
+    public void clearClassCache() {
+        jobClasses.clear();
+    }
+
+    /**
+     * Creates update of the stored job data of the job, see {@link JobDataConverter#toJobDataUpdate(JobDataMap)}.
+     */
+    public Document toJobDataUpdate(JobDetail job) {
+        return jobDataConverter.toJobDataUpdate(job.getJobDataMap());
+    }
+
+    private Class<Job> loadJobClass(String className) throws ClassNotFoundException {
+        Class<Job> jobClass = jobClasses.get(className);
+        if (jobClass == null) {
+            // Make it possible for subclasses to use custom class loaders.
+            // When Quartz jobs are implemented as Clojure records, the only way to use
+            // them without switching to gen-class is by using a
+            // clojure.lang.DynamicClassLoader instance.
+            @SuppressWarnings("unchecked")
+            Class<Job> loaded = (Class<Job>) loadHelper.getClassLoader().loadClass(className);
+            jobClass = loaded;
+            jobClasses.put(className, jobClass);
+        }
+        return jobClass;
+    }
+
     /**
      * Converts document into job data map.
+     * Serialized job data is deserialized only when the map is read,
+     * other job data is loaded with a snapshot to store only changed keys.
      * Will first try {@link JobDataConverter} to deserialize
      * from '{@value Constants#JOB_DATA}' ({@code base64})
      * or '{@value Constants#JOB_DATA_PLAIN}' fields.
@@ -71,9 +105,13 @@ public class JobConverter {
      * from root fields (legacy, subject to remove).
      */
     private JobDataMap createJobDataMap(Document doc) throws JobPersistenceException {
-        JobDataMap jobData = new JobDataMap();
+        JobDataMap jobData = jobDataConverter.toLazyJobData(doc);
+        if (jobData != null) {
+            return jobData;
+        }
+        SnapshotJobDataMap loaded = new SnapshotJobDataMap();
 
-        if (!jobDataConverter.toJobData(doc, jobData)) {
+        if (!jobDataConverter.toJobData(doc, loaded)) {
             for (String key : doc.keySet()) {
                 if (!key.equals(KEY_NAME)
                         && !key.equals(KEY_GROUP)
@@ -81,14 +119,18 @@ public class JobConverter {
                         && !key.equals(JOB_DESCRIPTION)
                         && !key.equals(JOB_DURABILITY)
                         && !key.equals(JOB_REQUESTS_RECOVERY)
+                        && !key.equals(JOB_VERSION)
                         && !key.equals("_id")) {
-                    jobData.put(key, doc.get(key));
+                    loaded.put(key, doc.get(key));
                 }
             }
         }
 
-        jobData.clearDirtyFlag();
-        return jobData;
+        loaded.clearDirtyFlag();
+        if (doc.containsKey(Constants.JOB_DATA_PLAIN)) {
+            loaded.takeSnapshot();
+        }
+        return loaded;
     }
 
     private void withDurability(Document doc, JobBuilder builder) throws JobPersistenceException {
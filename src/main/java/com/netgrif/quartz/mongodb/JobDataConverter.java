@@ -1,53 +1,189 @@
 package com.netgrif.quartz.mongodb;
 
 import com.netgrif.quartz.mongodb.util.SerialUtils;
+import org.apache.commons.codec.binary.Base64;
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.quartz.JobDataMap;
 import org.quartz.JobPersistenceException;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Converter between {@link JobDataMap} and mongo {@link Document}.
  */
 public class JobDataConverter {
 
+	/**
+	 * Header of binary job data: format id and flags.
+	 */
+	private static final int HEADER_LENGTH = 2;
+	/**
+	 * Format id of the whole map written by Java serialization, as in {@code base64} job data.
+	 */
+	private static final byte JAVA_SERIALIZATION_FORMAT = 0;
+	private static final byte FLAG_COMPRESSED = 1;
+
 	private final boolean base64Preferred;
+	private final JobDataSerializer serializer;
+	private final JobDataSerializer compactSerializer = new CompactJobDataSerializer();
+	private final int compressionThreshold;
+	private final AtomicLong compressedRawBytes = new AtomicLong();
+	private final AtomicLong compressedBytes = new AtomicLong();
 
 	/**
 	 * Constructs an instance of converter.
 	 * @param base64Preferred if preferred way to store job details is {@code base64}.
 	 */
 	public JobDataConverter(final boolean base64Preferred) {
+		this(base64Preferred, null);
+	}
+
+	/**
+	 * Constructs an instance of converter.
+	 * @param base64Preferred if preferred way to store job details is serialized rather than plain.
+	 * @param serializer serializer writing binary job data instead of {@code base64} strings,
+	 *                   null to keep writing {@code base64}.
+	 */
+	public JobDataConverter(final boolean base64Preferred, final JobDataSerializer serializer) {
+		this(base64Preferred, serializer, 0);
+	}
+
+	/**
+	 * Constructs an instance of converter.
+	 * @param base64Preferred if preferred way to store job details is serialized rather than plain.
+	 * @param serializer serializer writing binary job data instead of {@code base64} strings,
+	 *                   null to keep writing {@code base64}.
+	 * @param compressionThreshold size in bytes from which serialized job data is compressed,
+	 *                             0 to never compress.
+	 */
+	public JobDataConverter(final boolean base64Preferred, final JobDataSerializer serializer,
+							final int compressionThreshold) {
 		this.base64Preferred = base64Preferred;
+		this.serializer = serializer;
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * @return size of compressed job data before compression, in bytes.
+	 */
+	public long getCompressedRawBytes() {
+		return compressedRawBytes.get();
+	}
+
+	/**
+	 * @return size of compressed job data after compression, in bytes.
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
 	}
 
 	/**
 	 * Converts from job data map to document.
 	 * Depending on config, job data map can be stored
-	 * as a {@code base64} encoded or plain object.
+	 * as binary, a {@code base64} encoded or plain object.
 	 * @param from {@link JobDataMap} to convert from.
 	 * @param to mongo {@link Document} to populate. 
 	 * @throws JobPersistenceException if could not encode.
 	 */
 	public void toDocument(JobDataMap from, Document to) throws JobPersistenceException {
+		if (base64Preferred && from instanceof LazyJobDataMap
+				&& !from.isDirty() && !((LazyJobDataMap) from).isMaterialized()) {
+			// Unchanged and never read, store it as it was
+			to.put(Constants.JOB_DATA, ((LazyJobDataMap) from).getPayload());
+			return;
+		}
 		if (from.isEmpty()) {
 			return;
 		}
-		if (base64Preferred) {
-			String jobDataString;
+		if (base64Preferred && serializer != null) {
+			byte[] payload;
 			try {
-				jobDataString = SerialUtils.serialize(from);
+				payload = serializer.serialize(from.getWrappedMap());
 			} catch (IOException e) {
 				throw new JobPersistenceException("Could not serialise job data.", e);
 			}
-			to.put(Constants.JOB_DATA, jobDataString);
+			to.put(Constants.JOB_DATA, toBinary(serializer.getFormatId(), payload));
+		} else if (base64Preferred) {
+			byte[] payload;
+			try {
+				payload = SerialUtils.serializeToBytes(from);
+			} catch (IOException e) {
+				throw new JobPersistenceException("Could not serialise job data.", e);
+			}
+			if (isCompressed(payload)) {
+				to.put(Constants.JOB_DATA, toBinary(JAVA_SERIALIZATION_FORMAT, payload));
+			} else {
+				to.put(Constants.JOB_DATA, Base64.encodeBase64String(payload));
+			}
 		} else {
 			to.put(Constants.JOB_DATA_PLAIN, from.getWrappedMap());
 		}
 	}
 
+	/**
+	 * Creates update of the stored job data which sets and unsets only keys
+	 * changed since the snapshot of the map was taken.
+	 * Applies only to job data stored as plain object.
+	 * @param from {@link JobDataMap} loaded with a snapshot.
+	 * @return update, empty when nothing changed, or null when job data
+	 * has to be stored as a whole.
+	 */
+	public Document toJobDataUpdate(JobDataMap from) {
+		if (base64Preferred || !(from instanceof SnapshotJobDataMap)) {
+			return null;
+		}
+		Map<String, Object> snapshot = ((SnapshotJobDataMap) from).getSnapshot();
+		if (snapshot == null) {
+			return null;
+		}
+		Map<String, Object> current = from.getWrappedMap();
+		Document set = new Document();
+		for (Map.Entry<String, Object> entry : current.entrySet()) {
+			if (!snapshot.containsKey(entry.getKey())
+					|| !Objects.equals(entry.getValue(), snapshot.get(entry.getKey()))) {
+				set.append(Constants.JOB_DATA_PLAIN + "." + entry.getKey(), entry.getValue());
+			}
+		}
+		Document unset = new Document();
+		for (String key : snapshot.keySet()) {
+			if (!current.containsKey(key)) {
+				unset.append(Constants.JOB_DATA_PLAIN + "." + key, "");
+			}
+		}
+		for (String key : set.keySet()) {
+			if (!isUpdatableKey(key)) {
+				return null;
+			}
+		}
+		for (String key : unset.keySet()) {
+			if (!isUpdatableKey(key)) {
+				return null;
+			}
+		}
+
+		Document update = new Document();
+		if (!set.isEmpty()) {
+			update.append("$set", set);
+		}
+		if (!unset.isEmpty()) {
+			update.append("$unset", unset);
+		}
+		return update;
+	}
+
+	/**
+	 * Keys with dots or starting with '$' can't be addressed by a field path.
+	 */
+	private boolean isUpdatableKey(String path) {
+		String key = path.substring(Constants.JOB_DATA_PLAIN.length() + 1);
+		return !key.isEmpty() && key.indexOf('.') < 0 && !key.startsWith("$");
+	}
+
 	/**
 	 * Converts from document to job data map.
 	 * If {@code base64} is preferred, tries
@@ -71,24 +207,96 @@ public class JobDataConverter {
 		}
 	}
 
+	/**
+	 * Creates job data map deserializing the serialized job data
+	 * of the document only when the map is read.
+	 * @param from mongo {@link Document} to read from.
+	 * @return lazy job data map or null when the document has no serialized
+	 * job data to read, use {@link #toJobData(Document, JobDataMap)} then.
+	 */
+	public JobDataMap toLazyJobData(Document from) {
+		Object jobData = from.get(Constants.JOB_DATA);
+		if (jobData == null || (!base64Preferred && from.containsKey(Constants.JOB_DATA_PLAIN))) {
+			return null;
+		}
+		return new LazyJobDataMap(jobData, this);
+	}
+
 	/**
 	 * Converts from document to job data map
-	 * reading {@code base64} encoded field
+	 * reading binary or {@code base64} encoded field
 	 * '{@value Constants#JOB_DATA}'.
 	 */
 	private boolean toJobDataFromBase64(Document from, JobDataMap to) throws JobPersistenceException {
-		String jobDataBase64String = from.getString(Constants.JOB_DATA);
-		if (jobDataBase64String == null) {
+		Object jobData = from.get(Constants.JOB_DATA);
+		if (jobData == null) {
 			return false;
 		}
-		Map<String, ?> jobDataMap;
+		to.putAll(deserialize(jobData));
+		return true;
+	}
+
+	/**
+	 * Deserializes value of '{@value Constants#JOB_DATA}' field,
+	 * binary or {@code base64} encoded.
+	 */
+	Map<String, ?> deserialize(Object jobData) throws JobPersistenceException {
+		if (jobData instanceof Binary) {
+			return fromBinary(((Binary) jobData).getData());
+		}
 		try {
-			jobDataMap = SerialUtils.deserialize(null, jobDataBase64String);
+			return SerialUtils.deserialize(null, (String) jobData);
 		} catch (IOException e) {
 			throw new JobPersistenceException("Could not deserialize job data.", e);
 		}
-		to.putAll(jobDataMap);
-		return true;
+	}
+
+	private boolean isCompressed(byte[] payload) {
+		return compressionThreshold > 0 && payload.length >= compressionThreshold;
+	}
+
+	private Binary toBinary(byte formatId, byte[] payload) throws JobPersistenceException {
+		byte flags = 0;
+		if (isCompressed(payload)) {
+			byte[] compressed = SerialUtils.compress(payload);
+			compressedRawBytes.addAndGet(payload.length);
+			compressedBytes.addAndGet(compressed.length);
+			payload = compressed;
+			flags |= FLAG_COMPRESSED;
+		}
+		byte[] bytes = new byte[HEADER_LENGTH + payload.length];
+		bytes[0] = formatId;
+		bytes[1] = flags;
+		System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+		return new Binary(bytes);
+	}
+
+	private Map<String, ?> fromBinary(byte[] bytes) throws JobPersistenceException {
+		if (bytes.length < HEADER_LENGTH) {
+			throw new JobPersistenceException("Could not deserialize job data, missing header.");
+		}
+		try {
+			byte[] payload = Arrays.copyOfRange(bytes, HEADER_LENGTH, bytes.length);
+			if ((bytes[1] & FLAG_COMPRESSED) != 0) {
+				payload = SerialUtils.decompress(payload);
+			}
+			if (bytes[0] == JAVA_SERIALIZATION_FORMAT) {
+				return SerialUtils.deserialize(payload);
+			}
+			return getSerializer(bytes[0]).deserialize(payload);
+		} catch (IOException e) {
+			throw new JobPersistenceException("Could not deserialize job data.", e);
+		}
+	}
+
+	private JobDataSerializer getSerializer(byte formatId) throws JobPersistenceException {
+		if (serializer != null && serializer.getFormatId() == formatId) {
+			return serializer;
+		}
+		if (compactSerializer.getFormatId() == formatId) {
+			return compactSerializer;
+		}
+		throw new JobPersistenceException("Could not deserialize job data of unknown format " + formatId);
 	}
 
 	/**
@@ -0,0 +1,25 @@
+package com.netgrif.quartz.mongodb;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serializes job data maps into bytes stored as BSON binary.
+ * Configured by '{@code org.quartz.jobStore.jobDataSerializer}'.
+ *
+ * <p>Stored bytes are tagged with {@link #getFormatId()}, so job data written
+ * by the built-in {@link CompactJobDataSerializer} stays readable after another
+ * serializer is configured.</p>
+ */
+public interface JobDataSerializer {
+
+    /**
+     * @return identifier of the format written by this serializer,
+     * values below 16 are reserved for built-in serializers
+     */
+    byte getFormatId();
+
+    byte[] serialize(Map<String, ?> jobData) throws IOException;
+
+    Map<String, ?> deserialize(byte[] bytes) throws IOException;
+}
@@ -0,0 +1,168 @@
+package com.netgrif.quartz.mongodb;
+
+import org.quartz.JobDataMap;
+import org.quartz.JobPersistenceException;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Job data map which keeps serialized job data as it was stored and
+ * deserializes it only when the map is read.
+ *
+ * <p>While the map is neither read nor changed, {@link JobDataConverter}
+ * stores the original payload again. Values put without reading the map
+ * take precedence over the stored ones once it is deserialized. Job data
+ * which can't be deserialized fails the first read with
+ * {@link IllegalStateException}.</p>
+ *
+ * <p>This saves deserialization of jobs and triggers which are loaded but
+ * not fired, e.g. when they are listed or stored again. Quartz copies the job
+ * data of fired triggers and their jobs into the execution context, so those
+ * are always deserialized.</p>
+ */
+public class LazyJobDataMap extends JobDataMap {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Object payload;
+    private transient JobDataConverter converter;
+
+    LazyJobDataMap(Object payload, JobDataConverter converter) {
+        this.payload = payload;
+        this.converter = converter;
+    }
+
+    public synchronized boolean isMaterialized() {
+        return payload == null;
+    }
+
+    /**
+     * @return stored job data while the map has not been deserialized, otherwise null
+     */
+    synchronized Object getPayload() {
+        return payload;
+    }
+
+    /**
+     * Deserialize stored job data into this map. Synchronized, so a map
+     * read by several threads at once is deserialized only once.
+     *
+     * @throws IllegalStateException if job data cannot be deserialized
+     */
+    public synchronized void materialize() {
+        if (payload == null) {
+            return;
+        }
+        Map<String, ?> stored;
+        try {
+            stored = converter.deserialize(payload);
+        } catch (JobPersistenceException e) {
+            throw new IllegalStateException("Could not deserialize job data.", e);
+        }
+        payload = null;
+        Map<String, Object> wrapped = super.getWrappedMap();
+        for (Map.Entry<String, ?> entry : stored.entrySet()) {
+            if (!wrapped.containsKey(entry.getKey())) {
+                wrapped.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> getWrappedMap() {
+        materialize();
+        return super.getWrappedMap();
+    }
+
+    @Override
+    public synchronized void clear() {
+        payload = null;
+        super.clear();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        materialize();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object val) {
+        materialize();
+        return super.containsValue(val);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        materialize();
+        return super.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        materialize();
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        materialize();
+        return super.hashCode();
+    }
+
+    @Override
+    public Object get(Object key) {
+        materialize();
+        return super.get(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        materialize();
+        return super.isEmpty();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        materialize();
+        return super.keySet();
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        // previous value must be returned
+        materialize();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> t) {
+        materialize();
+        super.putAll(t);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        materialize();
+        return super.remove(key);
+    }
+
+    @Override
+    public int size() {
+        materialize();
+        return super.size();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        materialize();
+        return super.values();
+    }
+
+    private Object writeReplace() {
+        materialize();
+        return this;
+    }
+}
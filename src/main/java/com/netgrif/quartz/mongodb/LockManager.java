@@ -1,40 +1,272 @@
 package com.netgrif.quartz.mongodb;
 
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.netgrif.quartz.mongodb.dao.LocksDao;
+import com.netgrif.quartz.mongodb.dao.TriggerDao;
 import com.netgrif.quartz.mongodb.util.ExpiryCalculator;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.quartz.JobDetail;
+import org.quartz.JobPersistenceException;
 import org.quartz.TriggerKey;
 import org.quartz.spi.OperableTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 public class LockManager {
 
     private static final Logger log = LoggerFactory.getLogger(LockManager.class);
 
+    /**
+     * Outcome of an attempt to acquire a trigger.
+     */
+    public enum Acquisition {
+        /** Trigger is owned by someone else. */
+        NONE,
+        /** Trigger was free and is now owned by this scheduler. */
+        ACQUIRED,
+        /** Trigger was taken over from an expired owner and needs recovery. */
+        EXPIRED
+    }
+
     private LocksDao locksDao;
     private ExpiryCalculator expiryCalculator;
+    private TriggerDao triggerDao;
+    private AcquisitionMode mode;
 
     public LockManager(LocksDao locksDao, ExpiryCalculator expiryCalculator) {
+        this(locksDao, expiryCalculator, null, AcquisitionMode.LOCKS);
+    }
+
+    public LockManager(LocksDao locksDao, ExpiryCalculator expiryCalculator,
+                       TriggerDao triggerDao, AcquisitionMode mode) {
         this.locksDao = locksDao;
         this.expiryCalculator = expiryCalculator;
+        this.triggerDao = triggerDao;
+        this.mode = mode;
+    }
+
+    /**
+     * Create filter matching claims that may be taken over by this scheduler.
+     * It is meant to be created once per acquisition round.
+     *
+     * @return filter or null when triggers are not claimed
+     */
+    public Bson createExpiredClaimsFilter() {
+        if (!isClaiming()) {
+            return null;
+        }
+        return TriggerDao.createExpiredClaimsFilter(
+                expiryCalculator.claimExpiredBefore(), expiryCalculator.findDefunctSchedulers());
+    }
+
+    /**
+     * Create aggregation stages dropping candidates with a live lock, so triggers
+     * locked by other schedulers aren't read. It is meant to be created once per
+     * acquisition round.
+     *
+     * @return stages, empty when triggers are claimed, as claimed ones are left out by the filter
+     */
+    public List<Bson> createLiveLockExclusion() {
+        if (isClaiming()) {
+            return Collections.emptyList();
+        }
+        return locksDao.createLiveLockExclusion(
+                expiryCalculator.claimExpiredBefore(), expiryCalculator.findDefunctSchedulers());
     }
 
     /**
-     * Lock job if it doesn't allow concurrent executions.
+     * Try to acquire given trigger, taking it over if its owner has expired.
+     *
+     * <p>When claiming, this is a single atomic update of the trigger document.
+     * Otherwise the trigger is locked and then relocked if the lock has expired.</p>
      *
-     * @param job    job to lock
+     * @param key           trigger to acquire
+     * @param expiredClaims filter from {@link #createExpiredClaimsFilter()}
+     * @return outcome of the attempt
      */
-    public void lockJob(JobDetail job) {
+    public Acquisition acquire(TriggerKey key, Bson expiredClaims) {
+        if (isClaiming()) {
+            Document previous = triggerDao.claim(key, locksDao.instanceId,
+                    expiryCalculator.leaseTime(), expiredClaims);
+            if (previous == null) {
+                log.debug("Trigger {} is claimed by another scheduler", key);
+                return Acquisition.NONE;
+            }
+            if (Constants.STATE_ACQUIRED.equals(previous.getString(Constants.TRIGGER_STATE))) {
+                log.info("Trigger {} claimed by {} has expired - claimed again",
+                        key, previous.getString(Constants.TRIGGER_OWNER));
+                return Acquisition.EXPIRED;
+            }
+            return Acquisition.ACQUIRED;
+        }
+
+        if (tryLock(key)) {
+            return Acquisition.ACQUIRED;
+        }
+        if (relockExpired(key)) {
+            return Acquisition.EXPIRED;
+        }
+        return Acquisition.NONE;
+    }
+
+    /**
+     * Try to acquire given triggers, taking over those whose owner has expired.
+     *
+     * <p>When locking, all triggers are locked in one bulk, and locks of those
+     * held by others are read at once to relock the expired ones. Claims are
+     * atomic updates of each trigger document.</p>
+     *
+     * @param keys          triggers to acquire
+     * @param expiredClaims filter from {@link #createExpiredClaimsFilter()}
+     * @return outcomes of the attempts, by position of the trigger
+     */
+    public List<Acquisition> acquire(List<TriggerKey> keys, Bson expiredClaims) {
+        List<Acquisition> acquisitions = new ArrayList<Acquisition>(keys.size());
+        if (isClaiming()) {
+            for (TriggerKey key : keys) {
+                acquisitions.add(acquire(key, expiredClaims));
+            }
+            return acquisitions;
+        }
+
+        Set<Integer> locked = locksDao.lockTriggers(keys);
+        List<TriggerKey> held = new ArrayList<TriggerKey>(keys.size() - locked.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (!locked.contains(i)) {
+                held.add(keys.get(i));
+            }
+        }
+        Map<TriggerKey, Document> locks = locksDao.findTriggerLocks(held);
+        for (int i = 0; i < keys.size(); i++) {
+            TriggerKey key = keys.get(i);
+            if (locked.contains(i)) {
+                acquisitions.add(Acquisition.ACQUIRED);
+            } else if (relockExpired(key, locks.get(key))) {
+                acquisitions.add(Acquisition.EXPIRED);
+            } else {
+                acquisitions.add(Acquisition.NONE);
+            }
+        }
+        return acquisitions;
+    }
+
+    /**
+     * Fields to keep on the trigger document while it's acquired,
+     * so storing a fired trigger doesn't release it.
+     *
+     * @return claim fields, empty when triggers are locked
+     */
+    public Document acquiredTriggerFields() {
+        Document fields = new Document();
+        if (isClaiming()) {
+            fields.append(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED)
+                    .append(Constants.TRIGGER_OWNER, locksDao.instanceId)
+                    .append(Constants.TRIGGER_LEASE_TIME, expiryCalculator.leaseTime());
+        }
+        return fields;
+    }
+
+    /**
+     * @return keys of triggers acquired by this scheduler
+     */
+    public List<TriggerKey> findOwnAcquiredTriggers() {
+        if (isClaiming()) {
+            return triggerDao.findClaimedBy(locksDao.instanceId);
+        }
+        return locksDao.findOwnTriggersLocks();
+    }
+
+    /**
+     * Refresh own lock or claim of given trigger, so other schedulers don't take it over.
+     *
+     * @param key trigger to refresh
+     * @return true when this scheduler still owns the trigger
+     */
+    public boolean refreshOwn(TriggerKey key) throws JobPersistenceException {
+        if (isClaiming()) {
+            return triggerDao.renewClaim(key, locksDao.instanceId, expiryCalculator.leaseTime());
+        }
+        return locksDao.updateOwnLock(key);
+    }
+
+    /**
+     * Release all triggers claimed by this scheduler.
+     * Used by non-clustered schedulers at startup.
+     */
+    public void releaseOwnClaims() {
+        if (isClaiming()) {
+            triggerDao.releaseClaims(locksDao.instanceId);
+        }
+    }
+
+    /**
+     * Lock those of given jobs which don't allow concurrent executions, in one bulk.
+     *
+     * @param jobs    jobs to lock
+     * @return positions of jobs which couldn't be locked
+     */
+    public Set<Integer> lockJobs(List<JobDetail> jobs) {
+        List<JobDetail> toLock = new ArrayList<JobDetail>();
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < jobs.size(); i++) {
+            if (jobs.get(i).isConcurrentExectionDisallowed()) {
+                toLock.add(jobs.get(i));
+                positions.add(i);
+            }
+        }
+
+        Set<Integer> failed = new HashSet<Integer>();
+        for (BulkWriteError error : locksDao.lockJobs(toLock)) {
+            log.debug("Failed to lock job {}, reason: {}", toLock.get(error.getIndex()).getKey(), error.getMessage());
+            failed.add(positions.get(error.getIndex()));
+        }
+        return failed;
+    }
+
+    /**
+     * Unlock job if it doesn't allow concurrent executions.
+     *
+     * @param job    job to unlock
+     */
+    public void unlockJob(JobDetail job) {
         if (job.isConcurrentExectionDisallowed()) {
-            locksDao.lockJob(job);
+            locksDao.unlockJob(job);
         }
     }
 
     public void unlockAcquiredTrigger(OperableTrigger trigger) {
-        locksDao.unlockTrigger(trigger);
+        unlockAcquiredTrigger(trigger.getKey());
+    }
+
+    public void unlockAcquiredTrigger(TriggerKey key) {
+        if (isClaiming()) {
+            triggerDao.releaseClaim(key, locksDao.instanceId);
+        } else {
+            locksDao.unlockTrigger(key);
+        }
+    }
+
+    /**
+     * Release given triggers acquired by this scheduler, at once.
+     *
+     * @param keys    triggers to release
+     */
+    public void unlockAcquiredTriggers(Collection<TriggerKey> keys) {
+        if (isClaiming()) {
+            triggerDao.releaseClaims(keys, locksDao.instanceId);
+        } else {
+            locksDao.unlockTriggers(keys);
+        }
     }
 
     /**
@@ -58,9 +290,14 @@ public class LockManager {
      * @return true when successfully locked, false otherwise
      */
     public boolean tryLock(TriggerKey key) {
+        if (isClaiming()) {
+            return triggerDao.claim(key, locksDao.instanceId, expiryCalculator.leaseTime(), null) != null;
+        }
         try {
-            locksDao.lockTrigger(key);
-            return true;
+            if (locksDao.lockTrigger(key)) {
+                return true;
+            }
+            log.debug("Trigger {} is already locked", key);
         } catch (MongoWriteException e) {
             log.info("Failed to lock trigger {}, reason: {}", key, e.getError());
         }
@@ -74,7 +311,10 @@ public class LockManager {
      * @return true when successfully relocked
      */
     public boolean relockExpired(TriggerKey key) {
-        Document existingLock = locksDao.findTriggerLock(key);
+        return relockExpired(key, locksDao.findTriggerLock(key));
+    }
+
+    private boolean relockExpired(TriggerKey key, Document existingLock) {
         if (existingLock != null) {
             if (expiryCalculator.isTriggerLockExpired(existingLock)) {
                 // When a scheduler is defunct then its triggers become expired
@@ -94,4 +334,8 @@ public class LockManager {
         }
         return false;
     }
+
+    private boolean isClaiming() {
+        return mode == AcquisitionMode.CLAIM;
+    }
 }
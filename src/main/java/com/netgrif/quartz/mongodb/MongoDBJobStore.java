@@ -1,11 +1,12 @@
 package com.netgrif.quartz.mongodb;
 
-import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.netgrif.quartz.mongodb.dao.IndexCatalog;
 import com.netgrif.quartz.mongodb.db.MongoConnector;
+import com.netgrif.quartz.mongodb.trigger.TriggerTypeRegistry;
 import com.netgrif.quartz.mongodb.util.Keys;
 import org.bson.Document;
 import org.quartz.*;
@@ -14,6 +15,8 @@ import org.quartz.Trigger.TriggerState;
 import org.quartz.impl.matchers.GroupMatcher;
 import org.quartz.spi.*;
 import org.quartz.Calendar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
@@ -22,6 +25,8 @@ import java.util.concurrent.TimeUnit;
 
 public class MongoDBJobStore implements JobStore, Constants {
 
+    private static final Logger log = LoggerFactory.getLogger(MongoDBJobStore.class);
+
     private MongoStoreAssembler assembler = new MongoStoreAssembler();
 
     MongoConnector mongoConnector;
@@ -43,6 +48,21 @@ public class MongoDBJobStore implements JobStore, Constants {
     long clusterCheckinIntervalMillis = 7500;
     boolean jobDataAsBase64 = true;
     String checkInErrorHandler = null;
+    String jobDataSerializer = null;
+    int jobDataCompressionThreshold = 0;
+    IndexCatalog.PlanCheck queryPlanCheck = IndexCatalog.PlanCheck.OFF;
+    AcquisitionMode acquisitionMode = AcquisitionMode.LOCKS;
+    int candidateOverfetchFactor = 2;
+    SchedulingChangeMode schedulingChangeMode = SchedulingChangeMode.OFF;
+    long upcomingTriggerHorizonMillis = 0;
+    long idleWaitTime = 0;
+    long claimAheadMillis = 0;
+    int claimAheadMaxCount = 100;
+    boolean partitionedAcquisition = false;
+    int calendarCacheSize = 100;
+    long calendarCacheTtlMillis = 0;
+    int jobCacheSize = 0;
+    private final TriggerTypeRegistry triggerTypeRegistry = new TriggerTypeRegistry();
 
     // Options for the Mongo client.
     Boolean mongoOptionSocketKeepAlive;
@@ -96,11 +116,15 @@ public class MongoDBJobStore implements JobStore, Constants {
     @Override
     public void initialize(ClassLoadHelper loadHelper, SchedulerSignaler signaler)
             throws SchedulerConfigException {
+        if (claimAheadMillis > 0 && claimAheadMillis + misfireThreshold >= triggerTimeoutMillis) {
+            // leased triggers would be taken over by other nodes before they fire
+            throw new SchedulerConfigException("claimAheadMillis with misfireThreshold must be shorter than triggerTimeoutMillis");
+        }
         Properties props = loadProperties(loadHelper);
         try {
             assembler.build(this, loadHelper, signaler, props);
         } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
-            throw new SchedulerConfigException("Failed to instantiate cluster checkin error handler", e);
+            throw new SchedulerConfigException("Failed to instantiate cluster checkin error handler or job data serializer", e);
         }
 
         if (isClustered()) {
@@ -110,9 +134,18 @@ public class MongoDBJobStore implements JobStore, Constants {
                 throw new SchedulerConfigException("Cannot recover triggers", e);
             }
             assembler.checkinExecutor.start();
+        } else {
+            assembler.lockManager.releaseOwnClaims();
         }
 
         ensureIndexes();
+
+        if (assembler.upcomingTriggerIndex != null) {
+            assembler.upcomingTriggerIndex.start();
+        }
+        if (isClustered()) {
+            assembler.schedulingChangeWatcher.start();
+        }
     }
 
     private Properties loadProperties(ClassLoadHelper loadHelper) {
@@ -138,21 +171,54 @@ public class MongoDBJobStore implements JobStore, Constants {
 
     @Override
     public void schedulerStarted() throws SchedulerException {
-        // No-op
+        storeStandby(false);
+        if (assembler.triggerLeases != null) {
+            assembler.triggerLeases.start();
+        }
     }
 
     @Override
     public void schedulerPaused() {
-        // No-op
+        storeStandby(true);
+        if (assembler.triggerLeases != null) {
+            assembler.triggerLeases.pause();
+        }
     }
 
     @Override
     public void schedulerResumed() {
+        storeStandby(false);
+        if (assembler.triggerLeases != null) {
+            assembler.triggerLeases.resume();
+        }
+    }
+
+    /**
+     * Tell other nodes whether this node fires triggers, see {@link com.netgrif.quartz.mongodb.cluster.BucketPartitioner}.
+     */
+    private void storeStandby(boolean standby) {
+        if (!isClustered()) {
+            return;
+        }
+        try {
+            assembler.schedulerDao.setStandby(standby);
+        } catch (MongoException e) {
+            log.warn("Failed to store standby of scheduler instance, it is stored with next check-in: {}",
+                    e.getMessage());
+        }
     }
 
     @Override
     public void shutdown() {
+        storeStandby(true);
+        if (assembler.triggerLeases != null) {
+            assembler.triggerLeases.shutdown();
+        }
         assembler.checkinExecutor.shutdown();
+        assembler.schedulingChangeWatcher.shutdown();
+        if (assembler.upcomingTriggerIndex != null) {
+            assembler.upcomingTriggerIndex.shutdown();
+        }
         assembler.mongoConnector.close();
     }
 
@@ -205,6 +271,49 @@ public class MongoDBJobStore implements JobStore, Constants {
         this.jobDataAsBase64 = jobDataAsBase64;
     }
 
+    /**
+     * Registry of trigger types this store can read and write. Register custom
+     * trigger types here before the store is initialized.
+     */
+    public TriggerTypeRegistry getTriggerTypeRegistry() {
+        return triggerTypeRegistry;
+    }
+
+    public String getJobDataSerializer() {
+        return jobDataSerializer;
+    }
+
+    /**
+     * Set how serialized job data is written: {@code compact} for the built-in
+     * binary format or class name of a {@link JobDataSerializer}.
+     * Not set by default, job data is written as {@code base64} strings.
+     */
+    public void setJobDataSerializer(String jobDataSerializer) {
+        this.jobDataSerializer = jobDataSerializer;
+    }
+
+    /**
+     * Set size in bytes from which serialized job data is stored compressed.
+     * Defaults to 0, job data is never compressed.
+     */
+    public void setJobDataCompressionThreshold(int jobDataCompressionThreshold) {
+        this.jobDataCompressionThreshold = jobDataCompressionThreshold;
+    }
+
+    /**
+     * @return size of job data compressed by this node before compression, in bytes
+     */
+    public long getJobDataCompressedRawBytes() {
+        return assembler.jobDataConverter.getCompressedRawBytes();
+    }
+
+    /**
+     * @return size of job data compressed by this node after compression, in bytes
+     */
+    public long getJobDataCompressedBytes() {
+        return assembler.jobDataConverter.getCompressedBytes();
+    }
+
     public String getCheckInErrorHandler() {
         return checkInErrorHandler;
     }
@@ -213,6 +322,151 @@ public class MongoDBJobStore implements JobStore, Constants {
         this.checkInErrorHandler = checkInErrorHandler;
     }
 
+    /**
+     * Set what to do when a hot query is not served by an index at startup:
+     * {@code off} (default), {@code warn} or {@code fail}.
+     */
+    public void setQueryPlanCheck(String queryPlanCheck) {
+        this.queryPlanCheck = IndexCatalog.PlanCheck.fromProperty(queryPlanCheck);
+    }
+
+    /**
+     * Set how triggers are acquired: {@code locks} (default) inserts a lock
+     * per trigger, {@code claim} atomically claims the trigger document.
+     */
+    public void setAcquisitionMode(String acquisitionMode) {
+        this.acquisitionMode = AcquisitionMode.fromProperty(acquisitionMode);
+    }
+
+    /**
+     * Set how a clustered scheduler learns about triggers scheduled by other nodes:
+     * {@code off} (default), {@code auto}, {@code stream} or {@code signals}.
+     */
+    public void setSchedulingChangeMode(String schedulingChangeMode) {
+        this.schedulingChangeMode = SchedulingChangeMode.fromProperty(schedulingChangeMode);
+    }
+
+    /**
+     * Set how far ahead next fire times of triggers are kept in memory, so acquisition
+     * doesn't query MongoDB while no trigger is due. Requires change streams.
+     * Defaults to 0, the index is disabled.
+     */
+    public void setUpcomingTriggerHorizonMillis(long upcomingTriggerHorizonMillis) {
+        this.upcomingTriggerHorizonMillis = upcomingTriggerHorizonMillis;
+    }
+
+    /**
+     * Set the idle wait time of the scheduler thread, which acquires triggers due within it.
+     * Needed when it is not set by {@code org.quartz.scheduler.idleWaitTime} in quartz.properties,
+     * e.g. with properties given to the scheduler factory. Defaults to 0, the idle wait time
+     * is read from quartz.properties.
+     */
+    public void setIdleWaitTime(long idleWaitTime) {
+        this.idleWaitTime = idleWaitTime;
+    }
+
+    /**
+     * Set how far ahead triggers are acquired and held by this node until they fire,
+     * so firing them doesn't wait for MongoDB. Together with the misfire threshold
+     * it must be shorter than the trigger timeout. Defaults to 0, triggers are acquired
+     * when Quartz asks for them.
+     */
+    public void setClaimAheadMillis(long claimAheadMillis) {
+        this.claimAheadMillis = claimAheadMillis;
+    }
+
+    /**
+     * Set how many triggers this node holds at most when acquiring ahead. Defaults to 100.
+     */
+    public void setClaimAheadMaxCount(int claimAheadMaxCount) {
+        this.claimAheadMaxCount = claimAheadMaxCount;
+    }
+
+    /**
+     * Set whether clustered nodes divide triggers among themselves by buckets,
+     * so each node acquires only its own triggers. Defaults to false.
+     */
+    public void setPartitionedAcquisition(boolean partitionedAcquisition) {
+        this.partitionedAcquisition = partitionedAcquisition;
+    }
+
+    /**
+     * Set how many candidate triggers are read per page when acquiring,
+     * as a multiple of the number of triggers Quartz asks for. Defaults to 2.
+     */
+    public void setCandidateOverfetchFactor(int candidateOverfetchFactor) {
+        this.candidateOverfetchFactor = candidateOverfetchFactor;
+    }
+
+    /**
+     * Set how many calendars are cached by this node. Defaults to 100, 0 disables the cache.
+     */
+    public void setCalendarCacheSize(int calendarCacheSize) {
+        this.calendarCacheSize = calendarCacheSize;
+    }
+
+    /**
+     * Set for how long a cached calendar is used before its version is checked
+     * against the stored one. Defaults to 0, checking it on every retrieval.
+     */
+    public void setCalendarCacheTtlMillis(long calendarCacheTtlMillis) {
+        this.calendarCacheTtlMillis = calendarCacheTtlMillis;
+    }
+
+    /**
+     * Set how many jobs are cached by this node. Defaults to 0, the cache is disabled.
+     */
+    public void setJobCacheSize(int jobCacheSize) {
+        this.jobCacheSize = jobCacheSize;
+    }
+
+    public long getCalendarCacheHits() {
+        return assembler.calendarDao.getCache().getHits();
+    }
+
+    public long getCalendarCacheMisses() {
+        return assembler.calendarDao.getCache().getMisses();
+    }
+
+    public long getJobCacheHits() {
+        return assembler.jobDao.getCache().getHits();
+    }
+
+    public long getJobCacheMisses() {
+        return assembler.jobDao.getCache().getMisses();
+    }
+
+    /**
+     * @return number of trigger candidates this node failed to acquire because
+     * another scheduler acquired them first, each costing a wasted round trip
+     */
+    public long getContendedTriggerCandidates() {
+        return assembler.triggerRunner.getContendedCandidates();
+    }
+
+    /**
+     * @return time in millis since the cluster snapshot used for lock expiry
+     * was refreshed, -1 when it hasn't been read yet
+     */
+    public long getClusterSnapshotAgeMillis() {
+        return assembler.clusterSnapshot.getAgeMillis();
+    }
+
+    /**
+     * @return number of acquisitions answered by the upcoming trigger index without querying MongoDB
+     */
+    public long getSkippedAcquisitionQueries() {
+        return assembler.upcomingTriggerIndex == null ? 0 : assembler.upcomingTriggerIndex.getSkippedQueries();
+    }
+
+    /**
+     * Forget resolved job classes, so they are loaded again when jobs are retrieved.
+     * Call when job classes have been redefined, e.g. after reloading Clojure namespaces.
+     */
+    public void clearClassCache() {
+        assembler.jobDao.clearClassCache();
+    }
+
     /**
      * Job and Trigger storage Methods
      */
@@ -441,11 +695,18 @@ public class MongoDBJobStore implements JobStore, Constants {
     @Override
     public List<OperableTrigger> acquireNextTriggers(long noLaterThan, int maxCount, long timeWindow)
             throws JobPersistenceException {
+        if (assembler.triggerLeases != null) {
+            return assembler.triggerLeases.acquireNext(noLaterThan, maxCount, timeWindow);
+        }
         return assembler.triggerRunner.acquireNext(noLaterThan, maxCount, timeWindow);
     }
 
     @Override
     public void releaseAcquiredTrigger(OperableTrigger trigger) {
+        if (assembler.triggerLeases != null) {
+            assembler.triggerLeases.release(trigger);
+            return;
+        }
         assembler.lockManager.unlockAcquiredTrigger(trigger);
     }
 
@@ -539,35 +800,16 @@ public class MongoDBJobStore implements JobStore, Constants {
     }
 
     /**
-     * Initializes the indexes for the scheduler collections.
+     * Initializes the indexes for the scheduler collections and checks
+     * that the hot queries use them.
      *
-     * @throws SchedulerConfigException if an error occurred communicating with the MongoDB server.
+     * @throws SchedulerConfigException if an error occurred communicating with the MongoDB server
+     *                                  or a hot query is not served by an index and the check should fail.
      */
     private void ensureIndexes() throws SchedulerConfigException {
         try {
-            /*
-             * Indexes are to be declared as group then name.  This is important as the quartz API allows
-             * for the searching of jobs and triggers using a group matcher.  To be able to use the compound
-             * index using group alone (as the API allows), group must be the first key in that index.
-             *
-             * To be consistent, all such indexes are ensured in the order group then name.  The previous
-             * indexes are removed after we have "ensured" the new ones.
-             */
-
-            assembler.jobDao.createIndex();
-            assembler.triggerDao.createIndex();
-            assembler.locksDao.createIndex(isClustered());
-            assembler.calendarDao.createIndex();
-            assembler.schedulerDao.createIndex();
-
-            try {
-                // Drop the old indexes that were declared as name then group rather than group then name
-                assembler.jobDao.dropIndex();
-                assembler.triggerDao.dropIndex();
-                assembler.locksDao.dropIndex();
-            } catch (MongoCommandException cfe) {
-                // Ignore, the old indexes have already been removed
-            }
+            assembler.indexCatalog.ensureIndexes(isClustered());
+            assembler.indexCatalog.checkQueryPlans(queryPlanCheck);
         } catch (MongoException e) {
             throw new SchedulerConfigException("Error while initializing the indexes", e);
         }
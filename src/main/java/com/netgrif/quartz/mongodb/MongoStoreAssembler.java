@@ -33,9 +33,20 @@ public class MongoStoreAssembler {
     public PausedJobGroupsDao pausedJobGroupsDao;
     public PausedTriggerGroupsDao pausedTriggerGroupsDao;
     public TriggerDao triggerDao;
+    public IndexCatalog indexCatalog;
+    public FireBundleDao fireBundleDao;
+    public SignalsDao signalsDao;
 
     public TriggerRecoverer triggerRecoverer;
     public CheckinExecutor checkinExecutor;
+    public SchedulingChangeWatcher schedulingChangeWatcher;
+    public UpcomingTriggerIndex upcomingTriggerIndex;
+    public TriggerLeases triggerLeases;
+    public ClusterSnapshot clusterSnapshot;
+    public JobDataConverter jobDataConverter;
+
+    private static final String IDLE_WAIT_TIME_PROPERTY = "org.quartz.scheduler.idleWaitTime";
+    private static final String DEFAULT_IDLE_WAIT_TIME = "30000";
 
     private QueryHelper queryHelper = new QueryHelper();
     private TriggerConverter triggerConverter;
@@ -46,25 +57,32 @@ public class MongoStoreAssembler {
             IllegalAccessException, InstantiationException {
         mongoConnector = createMongoConnector(jobStore);
 
-        JobDataConverter jobDataConverter = new JobDataConverter(jobStore.isJobDataAsBase64());
+        jobDataConverter = new JobDataConverter(jobStore.isJobDataAsBase64(),
+                createJobDataSerializer(jobStore, loadHelper), jobStore.jobDataCompressionThreshold);
 
         jobDao = createJobDao(jobStore, loadHelper, jobDataConverter);
 
-        triggerConverter = new TriggerConverter(jobDao, jobDataConverter);
+        triggerConverter = new TriggerConverter(jobDao, jobDataConverter, jobStore.getTriggerTypeRegistry());
 
+        upcomingTriggerIndex = createUpcomingTriggerIndex(jobStore);
         triggerDao = createTriggerDao(jobStore);
         calendarDao = createCalendarDao(jobStore);
         locksDao = createLocksDao(jobStore);
         pausedJobGroupsDao = createPausedJobGroupsDao(jobStore);
         pausedTriggerGroupsDao = createPausedTriggerGroupsDao(jobStore);
         schedulerDao = createSchedulerDao(jobStore);
+        clusterSnapshot = new ClusterSnapshot(schedulerDao, Clock.SYSTEM_CLOCK, jobStore.clusterCheckinIntervalMillis);
+        signalsDao = new SignalsDao(getCollection(jobStore, "signals"), jobStore.instanceId);
 
-        persister = createTriggerAndJobPersister();
+        indexCatalog = new IndexCatalog(jobDao, triggerDao, locksDao, calendarDao, schedulerDao);
+        fireBundleDao = new FireBundleDao(triggerDao, jobDao, calendarDao);
 
-        jobCompleteHandler = createJobCompleteHandler(signaler);
+        persister = createTriggerAndJobPersister();
 
         lockManager = createLockManager(jobStore);
 
+        jobCompleteHandler = createJobCompleteHandler(signaler);
+
         triggerStateManager = createTriggerStateManager();
 
         MisfireHandler misfireHandler = createMisfireHandler(jobStore, signaler);
@@ -76,9 +94,28 @@ public class MongoStoreAssembler {
                 lockManager, triggerDao, jobDao, recoveryTriggerFactory,
                 misfireHandler);
 
-        triggerRunner = createTriggerRunner(misfireHandler);
+        triggerRunner = createTriggerRunner(jobStore, misfireHandler);
+        triggerLeases = createTriggerLeases(jobStore, signaler);
 
         checkinExecutor = createCheckinExecutor(jobStore, loadHelper, quartzProps);
+
+        schedulingChangeWatcher = createSchedulingChangeWatcher(jobStore, signaler, quartzProps);
+    }
+
+    private SchedulingChangeWatcher createSchedulingChangeWatcher(MongoDBJobStore jobStore, SchedulerSignaler signaler,
+                                                                  Properties quartzProps) {
+        // the scheduler thread acquires triggers due within its idle wait time
+        long horizonMillis = jobStore.idleWaitTime > 0 ? jobStore.idleWaitTime
+                : Long.parseLong(quartzProps.getProperty(IDLE_WAIT_TIME_PROPERTY, DEFAULT_IDLE_WAIT_TIME));
+        horizonMillis = Math.max(horizonMillis, jobStore.upcomingTriggerHorizonMillis);
+        horizonMillis = Math.max(horizonMillis, jobStore.claimAheadMillis);
+        if (jobStore.isClustered() && jobStore.schedulingChangeMode != SchedulingChangeMode.OFF) {
+            // lets the watcher skip changes of this node
+            triggerDao.setInstanceId(jobStore.instanceId);
+        }
+        return new SchedulingChangeWatcher(triggerDao.getCollection(), signalsDao,
+                mongoConnector, signaler, jobStore.schedulingChangeMode, Clock.SYSTEM_CLOCK, jobStore.instanceId,
+                upcomingTriggerIndex, triggerLeases, horizonMillis);
     }
 
     private CheckinExecutor createCheckinExecutor(MongoDBJobStore jobStore, ClassLoadHelper loadHelper,
@@ -99,20 +136,39 @@ public class MongoStoreAssembler {
             aClass = loadHelper.loadClass(jobStore.getCheckInErrorHandler());
         }
         errorHandler = (Runnable) aClass.newInstance();
-        return new CheckinTask(schedulerDao, errorHandler);
+        // other instances' locks have all expired by time when they're stale
+        long staleAfterMillis = Math.max(jobStore.triggerTimeoutMillis, jobStore.jobTimeoutMillis);
+        return new CheckinTask(schedulerDao, clusterSnapshot, staleAfterMillis, errorHandler);
+    }
+
+    private JobDataSerializer createJobDataSerializer(MongoDBJobStore jobStore, ClassLoadHelper loadHelper)
+            throws SchedulerConfigException {
+        String serializer = jobStore.getJobDataSerializer();
+        if (serializer == null) {
+            return null;
+        }
+        if ("compact".equalsIgnoreCase(serializer)) {
+            return new CompactJobDataSerializer();
+        }
+        try {
+            return (JobDataSerializer) loadHelper.loadClass(serializer).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SchedulerConfigException("Could not create job data serializer " + serializer, e);
+        }
     }
 
     private CalendarDao createCalendarDao(MongoDBJobStore jobStore) {
-        return new CalendarDao(getCollection(jobStore, "calendars"));
+        return new CalendarDao(getCollection(jobStore, "calendars"), jobStore.calendarCacheSize,
+                jobStore.calendarCacheTtlMillis, Clock.SYSTEM_CLOCK);
     }
 
     private JobDao createJobDao(MongoDBJobStore jobStore, ClassLoadHelper loadHelper, JobDataConverter jobDataConverter) {
         JobConverter jobConverter = new JobConverter(jobStore.getClassLoaderHelper(loadHelper), jobDataConverter);
-        return new JobDao(getCollection(jobStore, "jobs"), queryHelper, jobConverter);
+        return new JobDao(getCollection(jobStore, "jobs"), queryHelper, jobConverter, jobStore.jobCacheSize);
     }
 
     private JobCompleteHandler createJobCompleteHandler(SchedulerSignaler signaler) {
-        return new JobCompleteHandler(persister, signaler, jobDao, locksDao, triggerDao);
+        return new JobCompleteHandler(persister, signaler, jobDao, locksDao, triggerDao, lockManager);
     }
 
     private LocksDao createLocksDao(MongoDBJobStore jobStore) {
@@ -120,9 +176,9 @@ public class MongoStoreAssembler {
     }
 
     private LockManager createLockManager(MongoDBJobStore jobStore) {
-        ExpiryCalculator expiryCalculator = new ExpiryCalculator(schedulerDao,
+        ExpiryCalculator expiryCalculator = new ExpiryCalculator(clusterSnapshot,
                 Clock.SYSTEM_CLOCK, jobStore.jobTimeoutMillis, jobStore.triggerTimeoutMillis, jobStore.isClustered());
-        return new LockManager(locksDao, expiryCalculator);
+        return new LockManager(locksDao, expiryCalculator, triggerDao, jobStore.acquisitionMode);
     }
 
     private MisfireHandler createMisfireHandler(MongoDBJobStore jobStore, SchedulerSignaler signaler) {
@@ -166,16 +222,46 @@ public class MongoStoreAssembler {
     }
 
     private TriggerAndJobPersister createTriggerAndJobPersister() {
-        return new TriggerAndJobPersister(triggerDao, jobDao, triggerConverter);
+        return new TriggerAndJobPersister(triggerDao, jobDao, triggerConverter, signalsDao);
     }
 
     private TriggerDao createTriggerDao(MongoDBJobStore jobStore) {
-        return new TriggerDao(getCollection(jobStore, "triggers"), queryHelper, triggerConverter);
+        return new TriggerDao(getCollection(jobStore, "triggers"), queryHelper, triggerConverter,
+                upcomingTriggerIndex);
+    }
+
+    private UpcomingTriggerIndex createUpcomingTriggerIndex(MongoDBJobStore jobStore) {
+        if (jobStore.upcomingTriggerHorizonMillis <= 0) {
+            return null;
+        }
+        return new UpcomingTriggerIndex(getCollection(jobStore, "triggers"),
+                jobStore.upcomingTriggerHorizonMillis, Clock.SYSTEM_CLOCK, jobStore.instanceId);
     }
 
-    private TriggerRunner createTriggerRunner(MisfireHandler misfireHandler) {
-        return new TriggerRunner(persister, triggerDao, jobDao, locksDao, calendarDao,
-                misfireHandler, triggerConverter, lockManager, triggerRecoverer);
+    private TriggerRunner createTriggerRunner(MongoDBJobStore jobStore, MisfireHandler misfireHandler) {
+        return new TriggerRunner(persister, triggerDao, jobDao, locksDao, calendarDao, fireBundleDao,
+                misfireHandler, triggerConverter, lockManager, triggerRecoverer,
+                jobStore.candidateOverfetchFactor, createBucketPartitioner(jobStore));
+    }
+
+    private BucketPartitioner createBucketPartitioner(MongoDBJobStore jobStore) {
+        if (!jobStore.isClustered() || !jobStore.partitionedAcquisition) {
+            return null;
+        }
+        return new BucketPartitioner(clusterSnapshot, Clock.SYSTEM_CLOCK, jobStore.misfireThreshold);
+    }
+
+    private TriggerLeases createTriggerLeases(MongoDBJobStore jobStore, SchedulerSignaler signaler) {
+        if (jobStore.claimAheadMillis <= 0) {
+            return null;
+        }
+        TriggerLeases leases = new TriggerLeases(triggerRunner, lockManager, signaler, Clock.SYSTEM_CLOCK,
+                jobStore.claimAheadMillis, jobStore.misfireThreshold, jobStore.claimAheadMaxCount,
+                jobStore.instanceId);
+        triggerDao.setTriggerLeases(leases);
+        // stamps tell leased triggers written by anyone since they were loaded
+        triggerDao.setInstanceId(jobStore.instanceId);
+        return leases;
     }
 
     private TriggerStateManager createTriggerStateManager() {
@@ -0,0 +1,36 @@
+package com.netgrif.quartz.mongodb;
+
+import java.util.Locale;
+
+/**
+ * How a clustered scheduler learns about triggers scheduled by other nodes,
+ * so it doesn't sleep through them until its idle wait time elapses.
+ */
+public enum SchedulingChangeMode {
+
+    /**
+     * Rely on the idle wait time of Quartz (default).
+     */
+    OFF,
+
+    /**
+     * Watch the triggers collection with a change stream when available,
+     * otherwise use the signals collection.
+     */
+    AUTO,
+
+    /**
+     * Watch the triggers collection with a change stream, requires a replica set or sharded cluster.
+     */
+    STREAM,
+
+    /**
+     * Publish next fire times of stored triggers into a capped signals collection
+     * and tail it, works with a standalone server too.
+     */
+    SIGNALS;
+
+    public static SchedulingChangeMode fromProperty(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,41 @@
+package com.netgrif.quartz.mongodb;
+
+import com.netgrif.quartz.mongodb.util.JobDataValues;
+import org.quartz.JobDataMap;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Job data map which remembers its entries as they were loaded,
+ * so only changed keys have to be stored after the job executes.
+ *
+ * <p>Nested maps and lists are copied into the snapshot, so changing
+ * them in place is recognized too.</p>
+ */
+public class SnapshotJobDataMap extends JobDataMap {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Map<String, Object> snapshot;
+
+    /**
+     * Remember current entries as the stored ones.
+     */
+    public void takeSnapshot() {
+        Map<String, Object> copy = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : getWrappedMap().entrySet()) {
+            copy.put(entry.getKey(), JobDataValues.copy(entry.getValue()));
+        }
+        // replaced, never changed, as clones share it
+        snapshot = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return entries as they were stored or null when no snapshot has been taken
+     */
+    public Map<String, Object> getSnapshot() {
+        return snapshot;
+    }
+}
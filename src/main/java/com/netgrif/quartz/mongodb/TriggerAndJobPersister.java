@@ -1,8 +1,12 @@
 package com.netgrif.quartz.mongodb;
 
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.WriteModel;
 import com.netgrif.quartz.mongodb.dao.JobDao;
+import com.netgrif.quartz.mongodb.dao.SignalsDao;
 import com.netgrif.quartz.mongodb.dao.TriggerDao;
 import com.netgrif.quartz.mongodb.trigger.TriggerConverter;
+import com.netgrif.quartz.mongodb.trigger.TriggerDelta;
 import com.netgrif.quartz.mongodb.util.Keys;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -15,7 +19,10 @@ import org.quartz.spi.OperableTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class TriggerAndJobPersister {
 
@@ -24,11 +31,21 @@ public class TriggerAndJobPersister {
     private final TriggerDao triggerDao;
     private final JobDao jobDao;
     private TriggerConverter triggerConverter;
+    private final SignalsDao signalsDao;
 
     public TriggerAndJobPersister(TriggerDao triggerDao, JobDao jobDao, TriggerConverter triggerConverter) {
+        this(triggerDao, jobDao, triggerConverter, null);
+    }
+
+    /**
+     * @param signalsDao publishes next fire times of stored triggers to other nodes, may be null
+     */
+    public TriggerAndJobPersister(TriggerDao triggerDao, JobDao jobDao, TriggerConverter triggerConverter,
+                                  SignalsDao signalsDao) {
         this.triggerDao = triggerDao;
         this.jobDao = jobDao;
         this.triggerConverter = triggerConverter;
+        this.signalsDao = signalsDao;
     }
 
     public List<OperableTrigger> getTriggersForJob(JobKey jobKey) throws JobPersistenceException {
@@ -60,7 +77,7 @@ public class TriggerAndJobPersister {
         if (trigger != null) {
             removeOrphanedJob(trigger);
             //TODO: check if can .deleteOne(filter) here
-            triggerDao.remove(filter);
+            triggerDao.remove(triggerKey);
             return true;
         }
         return false;
@@ -123,6 +140,91 @@ public class TriggerAndJobPersister {
         }
     }
 
+    /**
+     * Update trigger which is acquired by this scheduler, keeping it acquired.
+     * Only fields changed since the trigger was loaded are written.
+     *
+     * @param trigger        acquired trigger
+     * @param loaded         document the trigger was loaded from
+     * @param acquiredFields fields marking the trigger as acquired,
+     *                       see {@link LockManager#acquiredTriggerFields()}
+     * @return document as stored after the update
+     */
+    public Document updateAcquiredTrigger(OperableTrigger trigger, Document loaded, Document acquiredFields)
+            throws JobPersistenceException {
+        Document update = createAcquiredTriggerUpdate(trigger, loaded, acquiredFields);
+        if (!update.isEmpty()) {
+            // the stamp written with it is in the stored document as well
+            update = triggerDao.update(trigger.getKey(), update);
+        }
+        return TriggerDelta.apply(loaded, update);
+    }
+
+    /**
+     * Store fired triggers, keeping them acquired, in one bulk write.
+     * Triggers with a loaded document get only their changed fields updated,
+     * the others are replaced.
+     *
+     * @param triggers       fired triggers
+     * @param jobIds         ids of their jobs
+     * @param loaded         documents the triggers were loaded from, null elements when not known
+     * @param acquiredFields fields marking the triggers as acquired,
+     *                       see {@link LockManager#acquiredTriggerFields()}
+     * @return errors by position of the trigger that couldn't be stored
+     */
+    public Map<Integer, JobPersistenceException> storeFiredTriggers(List<OperableTrigger> triggers,
+                                                                    List<ObjectId> jobIds,
+                                                                    List<Document> loaded,
+                                                                    Document acquiredFields) {
+        Map<Integer, JobPersistenceException> errors = new HashMap<Integer, JobPersistenceException>();
+        List<WriteModel<Document>> writes = new ArrayList<WriteModel<Document>>(triggers.size());
+        List<Integer> positions = new ArrayList<Integer>(triggers.size());
+        for (int i = 0; i < triggers.size(); i++) {
+            OperableTrigger trigger = triggers.get(i);
+            try {
+                if (loaded.get(i) != null) {
+                    Document update = createAcquiredTriggerUpdate(trigger, loaded.get(i), acquiredFields);
+                    if (update.isEmpty()) {
+                        continue;
+                    }
+                    writes.add(triggerDao.createUpdateModel(trigger.getKey(), update));
+                } else {
+                    Document doc = triggerConverter.toDocument(trigger, jobIds.get(i));
+                    doc.putAll(acquiredFields);
+                    doc.remove("_id");
+                    writes.add(triggerDao.createReplaceModel(trigger.getKey(), doc));
+                }
+                positions.add(i);
+            } catch (JobPersistenceException e) {
+                errors.put(i, e);
+            }
+        }
+
+        for (BulkWriteError error : triggerDao.bulkWrite(writes)) {
+            int position = positions.get(error.getIndex());
+            errors.put(position, new JobPersistenceException("Could not store fired trigger "
+                    + triggers.get(position).getKey() + ": " + error.getMessage()));
+        }
+        return errors;
+    }
+
+    private Document createAcquiredTriggerUpdate(OperableTrigger trigger, Document loaded, Document acquiredFields)
+            throws JobPersistenceException {
+        boolean jobDataChanged = trigger.getJobDataMap().isDirty();
+        Document current = triggerConverter.toDocument(
+                trigger, loaded.getObjectId(Constants.TRIGGER_JOB_ID), jobDataChanged);
+        Document update = TriggerDelta.diff(loaded, current, jobDataChanged);
+        if (!acquiredFields.isEmpty()) {
+            Document set = update.get("$set", Document.class);
+            if (set == null) {
+                set = new Document();
+                update.append("$set", set);
+            }
+            set.putAll(acquiredFields);
+        }
+        return update;
+    }
+
     private void copyOldJobDataMap(OperableTrigger newTrigger, OperableTrigger trigger) {
         // Copy across the job data map from the old trigger to the new one.
         newTrigger.getJobDataMap().putAll(trigger.getJobDataMap());
@@ -175,5 +277,8 @@ public class TriggerAndJobPersister {
         } else {
             triggerDao.insert(trigger, newTrigger);
         }
+        if (signalsDao != null) {
+            signalsDao.publish(newTrigger.getNextFireTime());
+        }
     }
 }
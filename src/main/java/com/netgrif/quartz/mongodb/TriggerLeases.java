@@ -0,0 +1,299 @@
+package com.netgrif.quartz.mongodb;
+
+import com.mongodb.MongoException;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.quartz.JobPersistenceException;
+import org.quartz.TriggerKey;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Triggers acquired ahead of their fire time and held by this node, so the
+ * scheduler thread takes them without waiting for MongoDB.
+ *
+ * <p>A background thread leases triggers due within the claim-ahead time,
+ * again whenever triggers change and at least every half of that time.
+ * The scheduler thread then fires leased triggers at their fire time.
+ * Leases the scheduler thread didn't take until their fire time passed
+ * by the misfire threshold are released in bulk for other nodes.
+ * Leases of triggers written by this node are evicted and leased again
+ * as stored.</p>
+ */
+public class TriggerLeases {
+
+    private static final Logger log = LoggerFactory.getLogger(TriggerLeases.class);
+
+    private static final Comparator<OperableTrigger> FIRE_ORDER = new Comparator<OperableTrigger>() {
+        @Override
+        public int compare(OperableTrigger o1, OperableTrigger o2) {
+            int byTime = o1.getNextFireTime().compareTo(o2.getNextFireTime());
+            return byTime != 0 ? byTime : o1.getKey().compareTo(o2.getKey());
+        }
+    };
+
+    private final TriggerRunner triggerRunner;
+    private final LockManager lockManager;
+    private final SchedulerSignaler signaler;
+    private final Clock clock;
+    private final long claimAheadMillis;
+    private final long misfireThreshold;
+    private final int maxLeases;
+    private final String instanceId;
+
+    private final TreeSet<OperableTrigger> leased = new TreeSet<OperableTrigger>(FIRE_ORDER);
+    private boolean refillRequested;
+    private boolean paused;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public TriggerLeases(TriggerRunner triggerRunner, LockManager lockManager, SchedulerSignaler signaler,
+                         Clock clock, long claimAheadMillis, long misfireThreshold, int maxLeases,
+                         String instanceId) {
+        this.triggerRunner = triggerRunner;
+        this.lockManager = lockManager;
+        this.signaler = signaler;
+        this.clock = clock;
+        this.claimAheadMillis = claimAheadMillis;
+        this.misfireThreshold = misfireThreshold;
+        this.maxLeases = maxLeases;
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * Start leasing triggers.
+     */
+    public void start() {
+        log.info("Starting claim-ahead leasing for scheduler instance: {}", instanceId);
+        running = true;
+        thread = new Thread(this::run, "quartz-mongodb-claim-ahead-" + instanceId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop leasing and release all leases.
+     */
+    public void shutdown() {
+        if (thread == null) {
+            return;
+        }
+        log.info("Stopping claim-ahead leasing for scheduler instance: {}", instanceId);
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(claimAheadMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        release(takeAll());
+    }
+
+    /**
+     * Stop leasing while the scheduler is in standby and release all leases.
+     */
+    public void pause() {
+        synchronized (this) {
+            paused = true;
+        }
+        release(takeAll());
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        requestRefill();
+    }
+
+    /**
+     * Lease triggers again soon, as triggers have changed.
+     */
+    public synchronized void requestRefill() {
+        refillRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Take leased triggers due until given time, without querying MongoDB.
+     *
+     * @return triggers in fire order, owned by this scheduler until fired or released
+     */
+    public List<OperableTrigger> acquireNext(long noLaterThan, int maxCount, long timeWindow) {
+        Date noLaterThanDate = new Date(noLaterThan + timeWindow);
+        List<OperableTrigger> due = new ArrayList<OperableTrigger>();
+        synchronized (this) {
+            Iterator<OperableTrigger> it = leased.iterator();
+            while (it.hasNext() && due.size() < maxCount) {
+                OperableTrigger trigger = it.next();
+                if (trigger.getNextFireTime().after(noLaterThanDate)) {
+                    break;
+                }
+                it.remove();
+                due.add(trigger);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Release a trigger the scheduler thread gave up. The trigger may have
+     * been triggered in memory already, so it is leased again only as it is
+     * read from MongoDB by the next refill.
+     */
+    public void release(OperableTrigger trigger) {
+        release(Collections.singletonList(trigger));
+        requestRefill();
+    }
+
+    /**
+     * Release leases of given triggers, as they have been written by this node
+     * and leased triggers may be stale. Those are leased again as stored.
+     */
+    public void evict(Collection<TriggerKey> keys) {
+        List<OperableTrigger> evicted = new ArrayList<OperableTrigger>();
+        synchronized (this) {
+            Iterator<OperableTrigger> it = leased.iterator();
+            while (it.hasNext()) {
+                OperableTrigger trigger = it.next();
+                if (keys.contains(trigger.getKey())) {
+                    it.remove();
+                    evicted.add(trigger);
+                }
+            }
+        }
+        release(evicted);
+    }
+
+    /**
+     * @return keys of leased triggers
+     */
+    public synchronized Set<TriggerKey> getLeasedKeys() {
+        Set<TriggerKey> keys = new HashSet<TriggerKey>();
+        for (OperableTrigger trigger : leased) {
+            keys.add(trigger.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Release all leases, as all triggers have been written by this node.
+     */
+    public void evictAll() {
+        release(takeAll());
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                refill();
+            } catch (JobPersistenceException | MongoException e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("Leasing triggers failed, retrying: {}", e.getMessage());
+            }
+            awaitRefill();
+        }
+    }
+
+    private void refill() throws JobPersistenceException {
+        release(takeFiringBefore(new Date(clock.millis() - misfireThreshold)));
+
+        int count;
+        synchronized (this) {
+            refillRequested = false;
+            if (paused) {
+                return;
+            }
+            count = maxLeases - leased.size();
+        }
+        if (count <= 0) {
+            return;
+        }
+
+        List<OperableTrigger> acquired = triggerRunner.acquireAhead(
+                new Date(clock.millis() + claimAheadMillis), count);
+        if (acquired.isEmpty()) {
+            return;
+        }
+        boolean leasing;
+        synchronized (this) {
+            leasing = running && !paused;
+            if (leasing) {
+                leased.addAll(acquired);
+            }
+        }
+        if (!leasing) {
+            release(acquired);
+            return;
+        }
+        // acquired triggers are in fire order, this wakes up the scheduler thread
+        // when it waits for a later trigger or for none
+        signaler.signalSchedulingChange(acquired.get(0).getNextFireTime().getTime());
+    }
+
+    private synchronized void awaitRefill() {
+        long until = clock.millis() + Math.max(1, claimAheadMillis / 2);
+        while (running && !refillRequested) {
+            long wait = until - clock.millis();
+            if (wait <= 0) {
+                return;
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+
+    private synchronized List<OperableTrigger> takeFiringBefore(Date time) {
+        List<OperableTrigger> overdue = new ArrayList<OperableTrigger>();
+        Iterator<OperableTrigger> it = leased.iterator();
+        while (it.hasNext()) {
+            OperableTrigger trigger = it.next();
+            if (!trigger.getNextFireTime().before(time)) {
+                break;
+            }
+            it.remove();
+            overdue.add(trigger);
+        }
+        return overdue;
+    }
+
+    private synchronized List<OperableTrigger> takeAll() {
+        List<OperableTrigger> all = new ArrayList<OperableTrigger>(leased);
+        leased.clear();
+        return all;
+    }
+
+    private void release(List<OperableTrigger> triggers) {
+        if (triggers.isEmpty()) {
+            return;
+        }
+        List<TriggerKey> keys = new ArrayList<TriggerKey>(triggers.size());
+        for (OperableTrigger trigger : triggers) {
+            keys.add(trigger.getKey());
+        }
+        log.debug("Releasing {} leased triggers", keys.size());
+        try {
+            triggerRunner.forgetLoaded(keys);
+            lockManager.unlockAcquiredTriggers(keys);
+        } catch (MongoException e) {
+            log.warn("Failed to release leased triggers, they expire with their locks: {}", e.getMessage());
+        }
+    }
+}
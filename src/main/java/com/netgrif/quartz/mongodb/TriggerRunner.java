@@ -1,15 +1,20 @@
 package com.netgrif.quartz.mongodb;
 
 import com.mongodb.MongoException;
-import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Filters;
+import com.netgrif.quartz.mongodb.cluster.BucketPartitioner;
 import com.netgrif.quartz.mongodb.cluster.TriggerRecoverer;
 import com.netgrif.quartz.mongodb.dao.CalendarDao;
+import com.netgrif.quartz.mongodb.dao.FireBundleDao;
 import com.netgrif.quartz.mongodb.dao.JobDao;
 import com.netgrif.quartz.mongodb.dao.LocksDao;
 import com.netgrif.quartz.mongodb.dao.TriggerDao;
 import com.netgrif.quartz.mongodb.trigger.MisfireHandler;
 import com.netgrif.quartz.mongodb.trigger.TriggerConverter;
+import com.netgrif.quartz.mongodb.util.Keys;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.quartz.*;
 import org.quartz.Calendar;
 import org.quartz.spi.OperableTrigger;
@@ -19,6 +24,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TriggerRunner {
 
@@ -41,20 +48,42 @@ public class TriggerRunner {
     private JobDao jobDao;
     private LocksDao locksDao;
     private CalendarDao calendarDao;
+    private FireBundleDao fireBundleDao;
+    private int candidateOverfetchFactor;
+    private BucketPartitioner partitioner;
+    /**
+     * Documents of acquired triggers as they are stored, so firing them
+     * updates only the changed fields. Dropped when the trigger fires
+     * or its lease is released, and at the start of each acquisition
+     * unless triggers are leased ahead.
+     */
+    private final Map<TriggerKey, Document> loadedTriggers = new ConcurrentHashMap<TriggerKey, Document>();
+    private final AtomicLong contendedCandidates = new AtomicLong();
 
     public TriggerRunner(TriggerAndJobPersister persister, TriggerDao triggerDao, JobDao jobDao, LocksDao locksDao,
-                         CalendarDao calendarDao, MisfireHandler misfireHandler,
+                         CalendarDao calendarDao, FireBundleDao fireBundleDao, MisfireHandler misfireHandler,
                          TriggerConverter triggerConverter, LockManager lockManager,
-                         TriggerRecoverer recoverer) {
+                         TriggerRecoverer recoverer, int candidateOverfetchFactor,
+                         BucketPartitioner partitioner) {
         this.persister = persister;
         this.triggerDao = triggerDao;
         this.jobDao = jobDao;
         this.locksDao = locksDao;
         this.calendarDao = calendarDao;
+        this.fireBundleDao = fireBundleDao;
         this.misfireHandler = misfireHandler;
         this.triggerConverter = triggerConverter;
         this.lockManager = lockManager;
         this.recoverer = recoverer;
+        this.candidateOverfetchFactor = candidateOverfetchFactor;
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * @return number of candidates which were acquired by another scheduler first
+     */
+    public long getContendedCandidates() {
+        return contendedCandidates.get();
     }
 
     public List<OperableTrigger> acquireNext(long noLaterThan, int maxCount, long timeWindow)
@@ -64,7 +93,7 @@ public class TriggerRunner {
         log.debug("Finding up to {} triggers which have time less than {}",
                 maxCount, noLaterThanDate);
 
-        List<OperableTrigger> triggers = acquireNextTriggers(noLaterThanDate, maxCount);
+        List<OperableTrigger> triggers = acquireNextTriggers(noLaterThanDate, maxCount, false);
 
         // Because we are handling a batch, we may have done multiple queries and while the result for each
         // query is in fire order, the result for the whole might not be, so sort them again
@@ -74,83 +103,192 @@ public class TriggerRunner {
         return triggers;
     }
 
+    /**
+     * Acquire triggers due until given time ahead of their fire time, see {@link TriggerLeases}.
+     * Documents of triggers acquired before are kept, as those may still be leased.
+     *
+     * @return acquired triggers in fire order
+     */
+    public List<OperableTrigger> acquireAhead(Date noLaterThanDate, int maxCount) throws JobPersistenceException {
+        List<OperableTrigger> triggers = acquireNextTriggers(noLaterThanDate, maxCount, true);
+        Collections.sort(triggers, NEXT_FIRE_TIME_COMPARATOR);
+        return triggers;
+    }
+
+    /**
+     * Drop documents of acquired triggers which are released without firing.
+     */
+    public void forgetLoaded(Collection<TriggerKey> keys) {
+        for (TriggerKey key : keys) {
+            loadedTriggers.remove(key);
+        }
+    }
+
+    /**
+     * Fire given triggers as one batch.
+     *
+     * <p>Jobs and calendars of all triggers are read in one query, job locks are
+     * inserted in one bulk and fired triggers are stored in one bulk write.
+     * Results are in the order of given triggers, a trigger which cannot fire
+     * gets a result without bundle or with the error that prevented it.</p>
+     */
     public List<TriggerFiredResult> triggersFired(List<OperableTrigger> triggers)
             throws JobPersistenceException {
-        List<TriggerFiredResult> results = new ArrayList<TriggerFiredResult>(triggers.size());
+        TriggerFiredResult[] results = new TriggerFiredResult[triggers.size()];
         try {
-        for (OperableTrigger trigger : triggers) {
+        Map<TriggerKey, Document> fireDocs = findFireDocuments(triggers);
+        List<Firing> firings = new ArrayList<Firing>(triggers.size());
+        for (int i = 0; i < triggers.size(); i++) {
+            OperableTrigger trigger = triggers.get(i);
             log.debug("Fired trigger {}", trigger.getKey());
 
-            TriggerFiredBundle bundle = createTriggerFiredBundle(trigger);
-
-            if (hasJobDetail(bundle)) {
-                JobDetail job = bundle.getJobDetail();
-                try {
-                    lockManager.lockJob(job);
-                    results.add(new TriggerFiredResult(bundle));
-                    persister.storeTrigger(trigger, true);
-                } catch (MongoWriteException dk) {
-                    log.debug("Job disallows concurrent execution and is already running {}", job.getKey());
-                    locksDao.unlockTrigger(trigger);
-                    lockManager.unlockExpired(job);
+            Document fireDoc = fireDocs.get(trigger.getKey());
+            try {
+                TriggerFiredBundle bundle = createTriggerFiredBundle(trigger, fireDoc);
+                if (hasJobDetail(bundle)) {
+                    ObjectId jobId = fireDoc.get(FireBundleDao.JOB_FIELD, Document.class).getObjectId("_id");
+                    firings.add(new Firing(i, bundle, jobId));
+                } else {
+                    results[i] = new TriggerFiredResult((TriggerFiredBundle) null);
                 }
+            } catch (JobPersistenceException e) {
+                results[i] = new TriggerFiredResult(e);
             }
-
         }
+
+        storeFired(lockJobs(firings, results), results);
         }
         catch(MongoException e) {
    		 log.error("acquireNextTriggers failed due to MongoException: " + e.getMessage(), e);
             throw new JobPersistenceException("acquireNextTriggers failed due to MongoException: "  , e);
         }
-        return results;
+        return Arrays.asList(results);
     }
 
-    private List<OperableTrigger> acquireNextTriggers(Date noLaterThanDate, int maxCount)
-            throws JobPersistenceException {
-        Map<TriggerKey, OperableTrigger> triggers = new HashMap<TriggerKey, OperableTrigger>();
-        try{
-        for (Document triggerDoc : triggerDao.findEligibleToRun(noLaterThanDate)) {
-            if (acquiredEnough(triggers, maxCount)) {
-                break;
+    /**
+     * Lock jobs of fired triggers which disallow concurrent execution.
+     *
+     * @return firings whose jobs could be locked
+     */
+    private List<Firing> lockJobs(List<Firing> firings, TriggerFiredResult[] results) {
+        List<JobDetail> jobs = new ArrayList<JobDetail>(firings.size());
+        for (Firing firing : firings) {
+            jobs.add(firing.bundle.getJobDetail());
+        }
+
+        Set<Integer> notLocked = lockManager.lockJobs(jobs);
+        List<Firing> locked = new ArrayList<Firing>(firings.size());
+        for (int i = 0; i < firings.size(); i++) {
+            Firing firing = firings.get(i);
+            if (notLocked.contains(i)) {
+                JobDetail job = firing.bundle.getJobDetail();
+                log.debug("Job disallows concurrent execution and is already running {}", job.getKey());
+                // the trigger stays acquired until the scheduler releases it
+                lockManager.unlockExpired(job);
+                results[firing.index] = new TriggerFiredResult((TriggerFiredBundle) null);
+            } else {
+                locked.add(firing);
             }
+        }
+        return locked;
+    }
 
-            OperableTrigger trigger = triggerConverter.toTriggerWithOptionalJob(triggerDoc);
+    private void storeFired(List<Firing> firings, TriggerFiredResult[] results) {
+        List<OperableTrigger> fired = new ArrayList<OperableTrigger>(firings.size());
+        List<ObjectId> jobIds = new ArrayList<ObjectId>(firings.size());
+        List<Document> loaded = new ArrayList<Document>(firings.size());
+        for (Firing firing : firings) {
+            fired.add(firing.bundle.getTrigger());
+            jobIds.add(firing.jobId);
+            loaded.add(loadedTriggers.remove(firing.bundle.getTrigger().getKey()));
+        }
 
-            if (cannotAcquire(triggers, trigger)) {
-                continue;
+        Map<Integer, JobPersistenceException> errors
+                = persister.storeFiredTriggers(fired, jobIds, loaded, lockManager.acquiredTriggerFields());
+        for (int i = 0; i < firings.size(); i++) {
+            Firing firing = firings.get(i);
+            JobPersistenceException error = errors.get(i);
+            if (error == null) {
+                results[firing.index] = new TriggerFiredResult(firing.bundle);
+            } else {
+                log.error("Failed to store fired trigger {}", firing.bundle.getTrigger().getKey(), error);
+                lockManager.unlockJob(firing.bundle.getJobDetail());
+                results[firing.index] = new TriggerFiredResult(error);
             }
+        }
+    }
 
-            if (trigger.getJobKey() == null) {
-                log.error("Error retrieving job for trigger {}, setting trigger state to ERROR.", trigger.getKey());
-                triggerDao.transferState(trigger.getKey(), Constants.STATE_WAITING, Constants.STATE_ERROR);
-                continue;
-            }
+    private List<OperableTrigger> acquireNextTriggers(Date noLaterThanDate, int maxCount, boolean keepLoaded)
+            throws JobPersistenceException {
+        Map<TriggerKey, OperableTrigger> triggers = new HashMap<TriggerKey, OperableTrigger>();
+        if (!keepLoaded) {
+            loadedTriggers.clear();
+        }
+        // Acquired candidates which are not loaded yet, by trigger id
+        Map<Object, Candidate> acquired = new LinkedHashMap<Object, Candidate>();
+        try{
+        if (!triggerDao.mayHaveDueTriggers(noLaterThanDate)) {
+            return new ArrayList<OperableTrigger>();
+        }
+        Bson expiredClaims = lockManager.createExpiredClaimsFilter();
+        List<Bson> liveLocks = lockManager.createLiveLockExclusion();
+        Bson ownTriggers = partitioner == null ? null : partitioner.createOwnTriggersFilter();
+        Bson eligible = triggerDao.createEligibleFilter(noLaterThanDate, expiredClaims, ownTriggers);
+        int pageSize = candidatePageSize(maxCount);
+
+        // Candidates are read in pages sized from maxCount. When a page is used up because
+        // its candidates were acquired by others or misfired, the next page resumes
+        // after the last next fire time seen, skipping the triggers seen at that time.
+        Bson resumeFilter = null;
+        Date lastNextFireTime = null;
+        List<Object> seenAtLastTime = new ArrayList<Object>();
+        boolean hasMore;
+        do {
+            int read = 0;
+            boolean stoppedEarly = false;
+            Bson page = resumeFilter == null ? eligible : Filters.and(eligible, resumeFilter);
+
+            // Acquire triggers from lightweight candidates, loading none of them.
+            // Candidates are acquired in blocks, each in one bulk.
+            Map<Object, TriggerKey> block = new LinkedHashMap<Object, TriggerKey>();
+            for (Document candidate : triggerDao.findCandidates(page, pageSize, liveLocks)) {
+                if (triggers.size() + acquired.size() + block.size() >= maxCount) {
+                    acquireBlock(block, expiredClaims, acquired);
+                    if (triggers.size() + acquired.size() >= maxCount) {
+                        stoppedEarly = true;
+                        break;
+                    }
+                }
+                read++;
 
-            TriggerKey key = trigger.getKey();
-            if (lockManager.tryLock(key)) {
-                if (prepareForFire(noLaterThanDate, trigger)) {
-                    log.info("Acquired trigger: {}", trigger.getKey());
-                    triggers.put(trigger.getKey(), trigger);
-                } else {
-                	triggers.put(trigger.getKey(), trigger);
-                    lockManager.unlockAcquiredTrigger(trigger);
-                    triggers.remove(trigger.getKey());
+                Date nextFireTime = candidate.getDate(Constants.TRIGGER_NEXT_FIRE_TIME);
+                if (!Objects.equals(nextFireTime, lastNextFireTime)) {
+                    lastNextFireTime = nextFireTime;
+                    seenAtLastTime.clear();
                 }
-            } else if (lockManager.relockExpired(key)) {
-                log.info("Recovering trigger: {}", trigger.getKey());
-                OperableTrigger recoveryTrigger = recoverer.doRecovery(trigger);
-                lockManager.unlockAcquiredTrigger(trigger);
-                if (recoveryTrigger != null && lockManager.tryLock(recoveryTrigger.getKey())) {
-                    log.info("Acquired trigger: {}", recoveryTrigger.getKey());
-                    triggers.put(recoveryTrigger.getKey(), recoveryTrigger);
+                seenAtLastTime.add(candidate.get("_id"));
+
+                TriggerKey key = Keys.toTriggerKey(candidate);
+                if (triggers.containsKey(key)) {
+                    log.debug("Skipping trigger {} as we have already acquired it.", key);
+                    continue;
                 }
+                block.put(candidate.get("_id"), key);
             }
-        }
+            acquireBlock(block, expiredClaims, acquired);
+
+            // Fully load only the acquired triggers.
+            loadAcquired(acquired, noLaterThanDate, triggers);
+
+            resumeFilter = TriggerDao.createResumeFilter(lastNextFireTime, seenAtLastTime);
+            hasMore = read == pageSize || stoppedEarly;
+        } while (hasMore && !acquiredEnough(triggers, maxCount));
         }
         catch(MongoException e) {
         	for (OperableTrigger triggerDoc : triggers.values()) {
         		lockManager.unlockAcquiredTrigger(triggerDoc);
         	}
+        	unlockCandidates(acquired);
         	 log.error("acquireNextTriggers failed due to MongoException: " + e.getMessage(), e);
              throw new JobPersistenceException("acquireNextTriggers failed due to MongoException: "  , e);
         }
@@ -159,6 +297,97 @@ public class TriggerRunner {
         return new ArrayList<OperableTrigger>(triggers.values());
     }
 
+    /**
+     * Acquire block of candidates at once, adding the acquired ones to the map.
+     *
+     * @param block candidate keys by trigger id, cleared afterwards
+     */
+    private void acquireBlock(Map<Object, TriggerKey> block, Bson expiredClaims, Map<Object, Candidate> acquired) {
+        if (block.isEmpty()) {
+            return;
+        }
+        List<TriggerKey> keys = new ArrayList<TriggerKey>(block.values());
+        List<LockManager.Acquisition> acquisitions = lockManager.acquire(keys, expiredClaims);
+        int i = 0;
+        for (Map.Entry<Object, TriggerKey> entry : block.entrySet()) {
+            LockManager.Acquisition acquisition = acquisitions.get(i++);
+            if (acquisition != LockManager.Acquisition.NONE) {
+                acquired.put(entry.getKey(), new Candidate(entry.getValue(), acquisition));
+            } else {
+                contendedCandidates.incrementAndGet();
+            }
+        }
+        block.clear();
+    }
+
+    /**
+     * Load acquired triggers with their jobs in one query and prepare them for firing.
+     * Loaded candidates are removed from the map, those left have been removed from the database.
+     */
+    private void loadAcquired(Map<Object, Candidate> acquired, Date noLaterThanDate,
+                              Map<TriggerKey, OperableTrigger> triggers) throws JobPersistenceException {
+        if (acquired.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (Document triggerDoc : fireBundleDao.findInFireOrder(Filters.in("_id", acquired.keySet()), 0)) {
+                OperableTrigger trigger = triggerConverter.toTriggerWithJobDocument(
+                        triggerDoc, triggerDoc.get(FireBundleDao.JOB_FIELD, Document.class));
+                Candidate candidate = acquired.remove(triggerDoc.get("_id"));
+                triggerDoc.remove(FireBundleDao.JOB_FIELD);
+                triggerDoc.remove(FireBundleDao.CALENDAR_FIELD);
+                prepareAcquired(trigger, triggerDoc, candidate.acquisition, noLaterThanDate, triggers);
+            }
+        } catch (JobPersistenceException | RuntimeException e) {
+            unlockCandidates(acquired);
+            throw e;
+        }
+
+        unlockCandidates(acquired);
+    }
+
+    private void prepareAcquired(OperableTrigger trigger, Document loaded, LockManager.Acquisition acquisition,
+                                 Date noLaterThanDate, Map<TriggerKey, OperableTrigger> triggers)
+            throws JobPersistenceException {
+        if (trigger.getJobKey() == null) {
+            log.error("Error retrieving job for trigger {}, setting trigger state to ERROR.", trigger.getKey());
+            lockManager.unlockAcquiredTrigger(trigger);
+            triggerDao.transferState(trigger.getKey(), Constants.STATE_WAITING, Constants.STATE_ERROR);
+            return;
+        }
+
+        if (acquisition == LockManager.Acquisition.ACQUIRED) {
+            loadedTriggers.put(trigger.getKey(), loaded);
+            if (prepareForFire(noLaterThanDate, trigger)) {
+                log.info("Acquired trigger: {}", trigger.getKey());
+                triggers.put(trigger.getKey(), trigger);
+            } else {
+                loadedTriggers.remove(trigger.getKey());
+                lockManager.unlockAcquiredTrigger(trigger);
+            }
+        } else {
+            log.info("Recovering trigger: {}", trigger.getKey());
+            OperableTrigger recoveryTrigger = recoverer.doRecovery(trigger);
+            lockManager.unlockAcquiredTrigger(trigger);
+            if (recoveryTrigger != null && lockManager.tryLock(recoveryTrigger.getKey())) {
+                log.info("Acquired trigger: {}", recoveryTrigger.getKey());
+                triggers.put(recoveryTrigger.getKey(), recoveryTrigger);
+            }
+        }
+    }
+
+    private void unlockCandidates(Map<Object, Candidate> acquired) {
+        for (Candidate candidate : acquired.values()) {
+            lockManager.unlockAcquiredTrigger(candidate.key);
+        }
+        acquired.clear();
+    }
+
+    private int candidatePageSize(int maxCount) {
+        return Math.max(1, maxCount * candidateOverfetchFactor);
+    }
+
     private boolean prepareForFire(Date noLaterThanDate, OperableTrigger trigger)
             throws JobPersistenceException {
         //TODO don't remove when recovering trigger
@@ -176,21 +405,37 @@ public class TriggerRunner {
         return maxCount <= triggers.size();
     }
 
-    private boolean cannotAcquire(Map<TriggerKey, OperableTrigger> triggers, OperableTrigger trigger) {
-        if (trigger == null) {
-            return true;
-        }
-
-        if (triggers.containsKey(trigger.getKey())) {
-            log.debug("Skipping trigger {} as we have already acquired it.", trigger.getKey());
-            return true;
+    /**
+     * Read jobs and calendars of all fired triggers at once.
+     */
+    private Map<TriggerKey, Document> findFireDocuments(List<OperableTrigger> triggers) {
+        List<TriggerKey> keys = new ArrayList<TriggerKey>(triggers.size());
+        for (OperableTrigger trigger : triggers) {
+            keys.add(trigger.getKey());
         }
-        return false;
+        return fireBundleDao.findByKeys(keys);
     }
 
-    private TriggerFiredBundle createTriggerFiredBundle(OperableTrigger trigger)
+    private TriggerFiredBundle createTriggerFiredBundle(OperableTrigger trigger, Document fireDoc)
             throws JobPersistenceException {
-        Calendar cal = calendarDao.retrieveCalendar(trigger.getCalendarName());
+        if (fireDoc == null) {
+            log.debug("Trigger {} has been removed before it fired.", trigger.getKey());
+            return null;
+        }
+
+        if (isPaused(fireDoc)) {
+            // paused after it was acquired, possibly long ago when leased ahead
+            log.debug("Trigger {} has been paused before it fired.", trigger.getKey());
+            return null;
+        }
+
+        if (isChangedSinceAcquired(trigger, fireDoc)) {
+            // stored by another write, the scheduler releases it to be acquired again as stored
+            log.debug("Trigger {} has been changed before it fired.", trigger.getKey());
+            return null;
+        }
+
+        Calendar cal = calendarDao.toCalendar(fireDoc.get(FireBundleDao.CALENDAR_FIELD, Document.class));
         if (expectedCalendarButNotFound(trigger, cal)) {
             return null;
         }
@@ -198,12 +443,26 @@ public class TriggerRunner {
         Date prevFireTime = trigger.getPreviousFireTime();
         trigger.triggered(cal);
 
-        return new TriggerFiredBundle(retrieveJob(trigger), trigger, cal,
+        return new TriggerFiredBundle(retrieveJob(trigger, fireDoc), trigger, cal,
                 isRecovering(trigger), new Date(),
                 trigger.getPreviousFireTime(), prevFireTime,
                 trigger.getNextFireTime());
     }
 
+    private boolean isPaused(Document fireDoc) {
+        String state = fireDoc.getString(Constants.TRIGGER_STATE);
+        return Constants.STATE_PAUSED.equals(state) || Constants.STATE_PAUSED_BLOCKED.equals(state);
+    }
+
+    private boolean isChangedSinceAcquired(OperableTrigger trigger, Document fireDoc) {
+        if (!Objects.equals(trigger.getNextFireTime(), fireDoc.getDate(Constants.TRIGGER_NEXT_FIRE_TIME))) {
+            return true;
+        }
+        Document loaded = loadedTriggers.get(trigger.getKey());
+        return loaded != null && !Objects.equals(loaded.getString(Constants.TRIGGER_CHANGED_BY),
+                fireDoc.getString(Constants.TRIGGER_CHANGED_BY));
+    }
+
     private boolean expectedCalendarButNotFound(OperableTrigger trigger, Calendar cal) {
         return trigger.getCalendarName() != null && cal == null;
     }
@@ -219,7 +478,9 @@ public class TriggerRunner {
     private boolean notAcquirableAfterMisfire(Date noLaterThanDate, OperableTrigger trigger)
             throws JobPersistenceException {
         if (misfireHandler.applyMisfire(trigger)) {
-            persister.storeTrigger(trigger, true);
+            Document loaded = loadedTriggers.get(trigger.getKey());
+            loadedTriggers.put(trigger.getKey(),
+                    persister.updateAcquiredTrigger(trigger, loaded, lockManager.acquiredTriggerFields()));
 
             log.debug("Misfire trigger {}.", trigger.getKey());
 
@@ -239,11 +500,39 @@ public class TriggerRunner {
         return false;
     }
 
-    private JobDetail retrieveJob(OperableTrigger trigger) throws JobPersistenceException {
+    /**
+     * Trigger which is being fired, by its position in the fired batch.
+     */
+    private static class Firing {
+        private final int index;
+        private final TriggerFiredBundle bundle;
+        private final ObjectId jobId;
+
+        Firing(int index, TriggerFiredBundle bundle, ObjectId jobId) {
+            this.index = index;
+            this.bundle = bundle;
+            this.jobId = jobId;
+        }
+    }
+
+    /**
+     * Trigger acquired from a lightweight candidate document.
+     */
+    private static class Candidate {
+        private final TriggerKey key;
+        private final LockManager.Acquisition acquisition;
+
+        Candidate(TriggerKey key, LockManager.Acquisition acquisition) {
+            this.key = key;
+            this.acquisition = acquisition;
+        }
+    }
+
+    private JobDetail retrieveJob(OperableTrigger trigger, Document fireDoc) throws JobPersistenceException {
         try {
-            return jobDao.retrieveJob(trigger.getJobKey());
+            return jobDao.toJobDetail(fireDoc.get(FireBundleDao.JOB_FIELD, Document.class));
         } catch (JobPersistenceException e) {
-            locksDao.unlockTrigger(trigger);
+            lockManager.unlockAcquiredTrigger(trigger);
             throw e;
         }
     }
@@ -0,0 +1,337 @@
+package com.netgrif.quartz.mongodb;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.quartz.SchedulerConfigException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Next fire times of triggers due within a horizon, kept in memory by
+ * a change stream on the triggers collection, so acquisition doesn't
+ * query MongoDB while no trigger can be due.
+ *
+ * <p>Only triggers which may be acquired are indexed, waiting ones and acquired
+ * ones whose claim may expire. The index is loaded by one bounded range query
+ * and loaded again when acquisition looks beyond its horizon or after the
+ * stream failed. When more triggers are due than are loaded at once, acquisition
+ * beyond them queries MongoDB until enough of them are gone to load again.
+ * Changes made by this node are seen right away through {@link #invalidate()}.</p>
+ */
+public class UpcomingTriggerIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(UpcomingTriggerIndex.class);
+
+    private static final long MAX_AWAIT_MILLIS = 1000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int MAX_LOADED_TRIGGERS = 10000;
+    private static final Bson LOADED_FIELDS = Projections.include(Constants.TRIGGER_NEXT_FIRE_TIME);
+
+    private final MongoCollection<Document> triggerCollection;
+    private final long horizonMillis;
+    private final Clock clock;
+    private final String instanceId;
+
+    /** Indexed next fire times by trigger id, Long.MIN_VALUE for triggers without it. */
+    private Map<Object, Long> fireTimes = new HashMap<Object, Long>();
+    /** Number of indexed triggers by next fire time. */
+    private TreeMap<Long, Integer> counts = new TreeMap<Long, Integer>();
+    private long loadedUntil = Long.MIN_VALUE;
+    /** Whether the last load was cut short at {@value #MAX_LOADED_TRIGGERS} triggers. */
+    private boolean saturated;
+    private boolean streaming;
+    private boolean stale;
+    /** Changes streamed while loading, applied again to the loaded index. Null while not loading. */
+    private Map<Object, Document> changedWhileLoading;
+    /** Number of times the stream failed or was opened again, a load across one is dropped. */
+    private long streamResets;
+    private final AtomicLong skippedQueries = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread thread;
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> changeStream;
+
+    public UpcomingTriggerIndex(MongoCollection<Document> triggerCollection, long horizonMillis,
+                                Clock clock, String instanceId) {
+        this.triggerCollection = triggerCollection;
+        this.horizonMillis = horizonMillis;
+        this.clock = clock;
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * Start watching the triggers collection.
+     *
+     * @throws SchedulerConfigException when change streams are not available
+     */
+    public void start() throws SchedulerConfigException {
+        try {
+            changeStream = openChangeStream();
+        } catch (MongoCommandException e) {
+            throw new SchedulerConfigException("Upcoming trigger index requires change streams", e);
+        }
+        synchronized (this) {
+            streaming = true;
+        }
+
+        log.info("Starting upcoming trigger index for scheduler instance: {}", instanceId);
+        running = true;
+        thread = new Thread(this::watch, "quartz-mongodb-upcoming-triggers-" + instanceId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching, the index then reports every trigger as possibly due.
+     */
+    public void shutdown() {
+        if (thread == null) {
+            return;
+        }
+        log.info("Stopping upcoming trigger index for scheduler instance: {}", instanceId);
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * Tells whether a trigger may be due until given time. Loads the index first
+     * when its horizon is shorter. The index is loaded without holding its
+     * monitor, so streamed changes aren't held up meanwhile.
+     *
+     * @param noLaterThan latest next fire time of acquired triggers
+     * @return false only when no trigger is due for sure
+     */
+    public boolean mayHaveDueTriggers(Date noLaterThan) {
+        long until;
+        long resets;
+        synchronized (this) {
+            if (!streaming || stale) {
+                stale = false;
+                return true;
+            }
+            if (noLaterThan.getTime() <= loadedUntil) {
+                return hasDueTriggers(noLaterThan);
+            }
+            if (changedWhileLoading != null || saturated) {
+                // loaded by another thread, or loading again would be cut short as well
+                return true;
+            }
+            changedWhileLoading = new LinkedHashMap<Object, Document>();
+            until = Math.max(clock.millis() + horizonMillis, noLaterThan.getTime());
+            resets = streamResets;
+        }
+        try {
+            load(until, resets);
+        } catch (MongoException e) {
+            synchronized (this) {
+                changedWhileLoading = null;
+            }
+            log.debug("Loading upcoming triggers failed: {}", e.getMessage());
+            return true;
+        }
+        synchronized (this) {
+            return noLaterThan.getTime() > loadedUntil || hasDueTriggers(noLaterThan);
+        }
+    }
+
+    /**
+     * Make the next acquisition query MongoDB, as triggers have just been changed
+     * and the change may not have been streamed yet.
+     */
+    public synchronized void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * @return number of acquisitions answered without querying MongoDB
+     */
+    public long getSkippedQueries() {
+        return skippedQueries.get();
+    }
+
+    private boolean hasDueTriggers(Date noLaterThan) {
+        if (!counts.isEmpty() && counts.firstKey() <= noLaterThan.getTime()) {
+            return true;
+        }
+        skippedQueries.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Read acquirable triggers due until given time, at most {@value #MAX_LOADED_TRIGGERS}
+     * of them, and replace the index with them.
+     */
+    private void load(long until, long resets) {
+        Bson filter = Filters.and(
+                Filters.in(Constants.TRIGGER_STATE, Constants.STATE_WAITING, Constants.STATE_ACQUIRED),
+                Filters.or(
+                        Filters.eq(Constants.TRIGGER_NEXT_FIRE_TIME, null),
+                        Filters.lte(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(until))));
+        Map<Object, Long> loadedFireTimes = new HashMap<Object, Long>();
+        TreeMap<Long, Integer> loadedCounts = new TreeMap<Long, Integer>();
+        long lastTime = Long.MIN_VALUE;
+        boolean truncated = false;
+        for (Document trigger : triggerCollection.find(filter)
+                .projection(LOADED_FIELDS)
+                .sort(Sorts.ascending(Constants.TRIGGER_NEXT_FIRE_TIME))
+                .limit(MAX_LOADED_TRIGGERS)) {
+            Date nextFireTime = trigger.getDate(Constants.TRIGGER_NEXT_FIRE_TIME);
+            lastTime = nextFireTime == null ? Long.MIN_VALUE : nextFireTime.getTime();
+            add(loadedFireTimes, loadedCounts, trigger.get("_id"), lastTime);
+        }
+        if (loadedFireTimes.size() == MAX_LOADED_TRIGGERS) {
+            // triggers with the last time may have been left out
+            until = lastTime == Long.MIN_VALUE ? Long.MIN_VALUE : lastTime - 1;
+            truncated = true;
+        }
+
+        synchronized (this) {
+            Map<Object, Document> changed = changedWhileLoading;
+            changedWhileLoading = null;
+            if (resets != streamResets) {
+                // changes may have been missed meanwhile
+                return;
+            }
+            fireTimes = loadedFireTimes;
+            counts = loadedCounts;
+            loadedUntil = until;
+            saturated = truncated;
+            for (Map.Entry<Object, Document> change : changed.entrySet()) {
+                apply(change.getKey(), change.getValue());
+            }
+        }
+        log.debug("Loaded {} upcoming triggers until {}", loadedFireTimes.size(), until);
+    }
+
+    private synchronized void apply(Object id, Document trigger) {
+        if (changedWhileLoading != null) {
+            changedWhileLoading.remove(id);
+            changedWhileLoading.put(id, trigger);
+        }
+        Long previous = fireTimes.remove(id);
+        if (previous != null) {
+            Integer count = counts.get(previous);
+            if (count == 1) {
+                counts.remove(previous);
+            } else {
+                counts.put(previous, count - 1);
+            }
+            if (saturated && fireTimes.size() < MAX_LOADED_TRIGGERS / 2) {
+                // enough due triggers are gone for a load to reach further
+                saturated = false;
+            }
+        }
+        if (trigger == null || !isAcquirable(trigger.getString(Constants.TRIGGER_STATE))) {
+            return;
+        }
+        Date nextFireTime = trigger.getDate(Constants.TRIGGER_NEXT_FIRE_TIME);
+        long time = nextFireTime == null ? Long.MIN_VALUE : nextFireTime.getTime();
+        if (time <= loadedUntil) {
+            add(fireTimes, counts, id, time);
+        }
+    }
+
+    private static void add(Map<Object, Long> fireTimes, TreeMap<Long, Integer> counts, Object id, long time) {
+        fireTimes.put(id, time);
+        Integer count = counts.get(time);
+        counts.put(time, count == null ? 1 : count + 1);
+    }
+
+    private static boolean isAcquirable(String state) {
+        return Constants.STATE_WAITING.equals(state) || Constants.STATE_ACQUIRED.equals(state);
+    }
+
+    private synchronized void streamFailed() {
+        streaming = false;
+        loadedUntil = Long.MIN_VALUE;
+        saturated = false;
+        streamResets++;
+    }
+
+    private synchronized void streamOpened() {
+        // changes may have been missed, load again on next acquisition
+        loadedUntil = Long.MIN_VALUE;
+        saturated = false;
+        streamResets++;
+        streaming = true;
+    }
+
+    private void watch() {
+        while (running) {
+            try {
+                if (changeStream == null) {
+                    changeStream = openChangeStream();
+                    streamOpened();
+                }
+                while (running) {
+                    ChangeStreamDocument<Document> change = changeStream.tryNext();
+                    if (change != null) {
+                        onChange(change);
+                    }
+                }
+            } catch (MongoException e) {
+                streamFailed();
+                if (!running) {
+                    break;
+                }
+                log.warn("Watching upcoming triggers failed, retrying: {}", e.getMessage());
+                sleep();
+            } finally {
+                if (changeStream != null) {
+                    changeStream.close();
+                    changeStream = null;
+                }
+            }
+        }
+        streamFailed();
+    }
+
+    private void onChange(ChangeStreamDocument<Document> change) {
+        BsonDocument key = change.getDocumentKey();
+        if (key == null || !key.containsKey("_id")) {
+            return;
+        }
+        BsonValue id = key.get("_id");
+        // trigger ids are object ids, read as such by the range query
+        Object triggerId = id.isObjectId() ? id.asObjectId().getValue() : id;
+        Document trigger = change.getOperationType() == OperationType.DELETE ? null : change.getFullDocument();
+        apply(triggerId, trigger);
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openChangeStream() {
+        return triggerCollection.watch()
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+                .cursor();
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RETRY_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
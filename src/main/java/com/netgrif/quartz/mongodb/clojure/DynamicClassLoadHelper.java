@@ -5,26 +5,55 @@ import org.quartz.spi.ClassLoadHelper;
 
 import java.io.InputStream;
 import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Makes it possible for Quartz to load and instantiate jobs that are defined
  * using Clojure defrecord without AOT compilation.
+ *
+ * <p>One class loader is used and loaded classes are cached by name.
+ * Call {@link #invalidate()} after namespaces defining jobs are reloaded,
+ * so the redefined classes are loaded again.</p>
  */
 public class DynamicClassLoadHelper implements ClassLoadHelper {
 
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+    private volatile DynamicClassLoader classLoader;
+
     @Override
     public ClassLoader getClassLoader() {
-        return new DynamicClassLoader();
+        DynamicClassLoader loader = classLoader;
+        if (loader == null) {
+            synchronized (this) {
+                loader = classLoader;
+                if (loader == null) {
+                    loader = new DynamicClassLoader();
+                    classLoader = loader;
+                }
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Forget loaded classes and the class loader.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            classLoader = null;
+            classes.clear();
+        }
     }
 
     @Override
     public URL getResource(String name) {
-        return null;
+        return getClassLoader().getResource(name);
     }
 
     @Override
     public InputStream getResourceAsStream(String name) {
-        return null;
+        return getClassLoader().getResourceAsStream(name);
     }
 
     @Override
@@ -33,12 +62,18 @@ public class DynamicClassLoadHelper implements ClassLoadHelper {
 
     @Override
     public Class<?> loadClass(String name) throws ClassNotFoundException {
-        return null;
+        Class<?> loaded = classes.get(name);
+        if (loaded == null) {
+            loaded = getClassLoader().loadClass(name);
+            classes.put(name, loaded);
+        }
+        return loaded;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> Class<? extends T> loadClass(String name, Class<T> clazz)
             throws ClassNotFoundException {
-        return null;
+        return (Class<? extends T>) loadClass(name);
     }
 }
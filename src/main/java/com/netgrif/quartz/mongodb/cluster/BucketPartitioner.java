@@ -0,0 +1,141 @@
+package com.netgrif.quartz.mongodb.cluster;
+
+import com.mongodb.client.model.Filters;
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.bson.conversions.Bson;
+import org.quartz.TriggerKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Divides triggers among live nodes of a cluster, so each node acquires
+ * only its own triggers and nodes don't compete for them.
+ *
+ * <p>Every trigger is stored with a bucket computed from its key. Buckets are
+ * assigned to live nodes by consistent hashing, so a node joining or leaving
+ * the cluster moves only the buckets of its neighbours on the ring. Nodes which
+ * haven't checked in on time or are in standby own no buckets. Triggers overdue
+ * by half of the misfire threshold may be acquired by any node, so no trigger
+ * misfires with a node which is alive, but doesn't fire.</p>
+ */
+public class BucketPartitioner {
+
+    private static final Logger log = LoggerFactory.getLogger(BucketPartitioner.class);
+
+    public static final int BUCKET_COUNT = 1024;
+    private static final int VIRTUAL_NODES = 64;
+
+    private final ClusterSnapshot clusterSnapshot;
+    private final Clock clock;
+    private final long takeoverDelayMillis;
+
+    private List<String> liveInstances;
+    private Set<Integer> ownBuckets;
+
+    public BucketPartitioner(ClusterSnapshot clusterSnapshot, Clock clock, long misfireThreshold) {
+        this.clusterSnapshot = clusterSnapshot;
+        this.clock = clock;
+        this.takeoverDelayMillis = misfireThreshold / 2;
+    }
+
+    /**
+     * @return bucket of given trigger, the same on every node
+     */
+    public static int bucketOf(TriggerKey key) {
+        return (int) Long.remainderUnsigned(hash(key.getGroup() + '\u0000' + key.getName()), BUCKET_COUNT);
+    }
+
+    /**
+     * Assign buckets to instances by consistent hashing.
+     *
+     * @param instanceIds ids of live instances
+     * @param instanceId  instance to find buckets of
+     * @return buckets of the instance
+     */
+    public static Set<Integer> assignBuckets(Collection<String> instanceIds, String instanceId) {
+        TreeMap<Long, String> ring = new TreeMap<Long, String>();
+        for (String id : instanceIds) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(id + '#' + i), id);
+            }
+        }
+        Set<Integer> buckets = new TreeSet<Integer>();
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            Map.Entry<Long, String> owner = ring.ceilingEntry(hash("bucket#" + bucket));
+            if (owner == null) {
+                owner = ring.firstEntry();
+            }
+            if (owner.getValue().equals(instanceId)) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Create filter matching triggers this node may acquire: those in its buckets
+     * and overdue ones. Buckets are divided again when live instances in the
+     * cluster snapshot have changed. It is meant to be created once per acquisition round.
+     */
+    public synchronized Bson createOwnTriggersFilter() {
+        long now = clock.millis();
+        List<String> live = findLiveInstances();
+        if (!live.equals(liveInstances)) {
+            liveInstances = live;
+            ownBuckets = assignBuckets(live, clusterSnapshot.getInstanceId());
+            log.info("Scheduler instance {} owns {} of {} buckets shared by {} instances",
+                    clusterSnapshot.getInstanceId(), ownBuckets.size(), BUCKET_COUNT, live.size());
+        }
+
+        List<Bson> filters = new ArrayList<Bson>(3);
+        filters.add(Filters.in(Constants.TRIGGER_BUCKET, ownBuckets));
+        if (ownBuckets.contains(0)) {
+            // triggers stored before partitioning have no bucket
+            filters.add(Filters.eq(Constants.TRIGGER_BUCKET, null));
+        }
+        // taken over before they misfire, as misfire handling may skip their fire
+        filters.add(Filters.lt(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(now - takeoverDelayMillis)));
+        return Filters.or(filters);
+    }
+
+    private List<String> findLiveInstances() {
+        List<String> live = new ArrayList<String>();
+        live.add(clusterSnapshot.getInstanceId());
+        for (Scheduler scheduler : clusterSnapshot.getLiveSchedulers()) {
+            if (!scheduler.isStandby() && clusterSnapshot.isNotSelf(scheduler)) {
+                live.add(scheduler.getInstanceId());
+            }
+        }
+        // snapshot is ordered by check-in time, which changes on every check-in
+        Collections.sort(live);
+        return live;
+    }
+
+    /**
+     * 64-bit FNV-1a with a final mix, the same on every JVM and spread
+     * better than {@link String#hashCode()}.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,5 +1,6 @@
 package com.netgrif.quartz.mongodb.cluster;
 
+import com.mongodb.MongoException;
 import com.mongodb.MongoWriteConcernException;
 import com.netgrif.quartz.mongodb.dao.SchedulerDao;
 import org.slf4j.Logger;
@@ -10,13 +11,27 @@ public class CheckinTask implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(CheckinTask.class);
 
     private SchedulerDao schedulerDao;
+    private ClusterSnapshot clusterSnapshot;
+    private long staleAfterMillis;
     private Runnable errorHandler;
     private int retryCount = 0;
     private static final int MAX_RETRIES = 10;
     private static final long RETRY_DELAY_MS = 1000;
 
     public CheckinTask(SchedulerDao schedulerDao, Runnable errorHandler) {
+        this(schedulerDao, null, 0, errorHandler);
+    }
+
+    /**
+     * @param clusterSnapshot  snapshot refreshed after every check-in attempt, may be null
+     * @param staleAfterMillis time since the last check-in after which other instances
+     *                         are removed from the cluster
+     */
+    public CheckinTask(SchedulerDao schedulerDao, ClusterSnapshot clusterSnapshot, long staleAfterMillis,
+                       Runnable errorHandler) {
         this.schedulerDao = schedulerDao;
+        this.clusterSnapshot = clusterSnapshot;
+        this.staleAfterMillis = staleAfterMillis;
         this.errorHandler = errorHandler;
     }
 
@@ -26,6 +41,12 @@ public class CheckinTask implements Runnable {
 
     @Override
     public void run() {
+        checkIn();
+        // also when the check-in failed, other instances' check-ins are still read
+        refreshSnapshot();
+    }
+
+    private void checkIn() {
         try {
             schedulerDao.checkIn();
             retryCount = 0;
@@ -37,13 +58,25 @@ public class CheckinTask implements Runnable {
         }
     }
 
+    private void refreshSnapshot() {
+        if (clusterSnapshot == null) {
+            return;
+        }
+        try {
+            clusterSnapshot.refresh();
+            clusterSnapshot.removeStale(staleAfterMillis);
+        } catch (MongoException e) {
+            log.warn("Failed to refresh cluster snapshot: {}", e.getMessage());
+        }
+    }
+
     private void handleWriteConcernException(MongoWriteConcernException e) {
         if (retryCount < MAX_RETRIES) {
             log.warn("WriteConcernException occurred, retrying check-in... Attempt: " + (retryCount + 1));
             try {
                 Thread.sleep(RETRY_DELAY_MS * retryCount);
                 retryCount++;
-                run();
+                checkIn();
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
                 log.error("Thread interrupted during retry delay", ie);
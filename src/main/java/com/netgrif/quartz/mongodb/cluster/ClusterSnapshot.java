@@ -0,0 +1,166 @@
+package com.netgrif.quartz.mongodb.cluster;
+
+import com.netgrif.quartz.mongodb.dao.SchedulerDao;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scheduler instances of this cluster as they were last read, so lock expiry
+ * and partitioning decisions don't query the schedulers collection.
+ *
+ * <p>The snapshot is refreshed by the check-in task with one query per check-in
+ * interval. When it's older than two intervals, e.g. on a non-clustered node
+ * which doesn't check in, it is refreshed on access. Instances are judged
+ * defunct by the time the snapshot was read, as their later check-ins
+ * aren't in it.</p>
+ */
+public class ClusterSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterSnapshot.class);
+
+    private final SchedulerDao schedulerDao;
+    private final Clock clock;
+    private final long maxAgeMillis;
+
+    private volatile Read read;
+
+    public ClusterSnapshot(SchedulerDao schedulerDao, Clock clock, long checkinIntervalMillis) {
+        this.schedulerDao = schedulerDao;
+        this.clock = clock;
+        this.maxAgeMillis = 2 * checkinIntervalMillis;
+    }
+
+    /**
+     * Read all instances of this cluster at once.
+     */
+    public void refresh() {
+        long now = clock.millis();
+        Map<String, Scheduler> found = new LinkedHashMap<String, Scheduler>();
+        for (Scheduler scheduler : schedulerDao.getAllByCheckinTime()) {
+            if (schedulerDao.schedulerName.equals(scheduler.getName())) {
+                found.put(scheduler.getInstanceId(), scheduler);
+            }
+        }
+        read = new Read(found, now);
+    }
+
+    /**
+     * @return instance with given id or null when there is none
+     */
+    public Scheduler findInstance(String instanceId) {
+        return current().schedulers.get(instanceId);
+    }
+
+    /**
+     * @return all instances in order of their last check-in
+     */
+    public List<Scheduler> getSchedulers() {
+        return new ArrayList<Scheduler>(current().schedulers.values());
+    }
+
+    /**
+     * @return true when the instance had stopped checking in when the snapshot was read,
+     * false when it hadn't or it's not known
+     */
+    public boolean isDefunct(String instanceId) {
+        Read current = current();
+        Scheduler scheduler = current.schedulers.get(instanceId);
+        return scheduler != null && scheduler.isDefunct(current.readAt);
+    }
+
+    /**
+     * @return instances which had stopped checking in when the snapshot was read,
+     * in order of their last check-in
+     */
+    public List<Scheduler> getDefunctSchedulers() {
+        return select(true);
+    }
+
+    /**
+     * @return instances which checked in on time when the snapshot was read,
+     * in order of their last check-in
+     */
+    public List<Scheduler> getLiveSchedulers() {
+        return select(false);
+    }
+
+    public boolean isNotSelf(Scheduler scheduler) {
+        return schedulerDao.isNotSelf(scheduler);
+    }
+
+    public String getInstanceId() {
+        return schedulerDao.instanceId;
+    }
+
+    /**
+     * @return time in millis since the last refresh, -1 when never refreshed
+     */
+    public long getAgeMillis() {
+        Read current = read;
+        return current == null ? -1 : clock.millis() - current.readAt;
+    }
+
+    /**
+     * Remove entries of other instances which haven't checked in for given time,
+     * as all their locks have expired by then and nothing needs them anymore.
+     *
+     * @param staleAfterMillis time since the last check-in after which an entry is stale
+     * @return number of removed entries
+     */
+    public int removeStale(long staleAfterMillis) {
+        long now = clock.millis();
+        int removed = 0;
+        for (Scheduler scheduler : current().schedulers.values()) {
+            if (isNotSelf(scheduler) && scheduler.getLastCheckinTime() + staleAfterMillis < now
+                    && schedulerDao.remove(scheduler.getInstanceId(), scheduler.getLastCheckinTime())) {
+                log.info("Removed stale scheduler instance {} last checked in at {}",
+                        scheduler.getInstanceId(), scheduler.getLastCheckinTime());
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            refresh();
+        }
+        return removed;
+    }
+
+    private List<Scheduler> select(boolean defunct) {
+        Read current = current();
+        List<Scheduler> selected = new ArrayList<Scheduler>();
+        for (Scheduler scheduler : current.schedulers.values()) {
+            if (scheduler.isDefunct(current.readAt) == defunct) {
+                selected.add(scheduler);
+            }
+        }
+        return selected;
+    }
+
+    private Read current() {
+        Read current = read;
+        if (current == null || clock.millis() - current.readAt > maxAgeMillis) {
+            refresh();
+            current = read;
+        }
+        return current;
+    }
+
+    /**
+     * Instances as read at once, with the time they were read.
+     */
+    private static class Read {
+        /** Instances by instance id, in order of their last check-in. */
+        private final Map<String, Scheduler> schedulers;
+        private final long readAt;
+
+        Read(Map<String, Scheduler> schedulers, long readAt) {
+            this.schedulers = schedulers;
+            this.readAt = readAt;
+        }
+    }
+}
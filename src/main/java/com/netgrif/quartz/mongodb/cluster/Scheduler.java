@@ -7,12 +7,18 @@ public class Scheduler {
     private final String instanceId;
     private final long lastCheckinTime;
     private final long checkinInterval;
+    private final boolean standby;
 
     public Scheduler(String name, String instanceId, long lastCheckinTime, long checkinInterval) {
+        this(name, instanceId, lastCheckinTime, checkinInterval, false);
+    }
+
+    public Scheduler(String name, String instanceId, long lastCheckinTime, long checkinInterval, boolean standby) {
         this.name = name;
         this.instanceId = instanceId;
         this.lastCheckinTime = lastCheckinTime;
         this.checkinInterval = checkinInterval;
+        this.standby = standby;
     }
 
     public String getName() {
@@ -31,6 +37,13 @@ public class Scheduler {
         return checkinInterval;
     }
 
+    /**
+     * @return true when the scheduler doesn't fire triggers, it's in standby or shutting down
+     */
+    public boolean isStandby() {
+        return standby;
+    }
+
     /**
      * Return true if scheduler is defunct for given time.
      * @param time    time to compare with
@@ -0,0 +1,292 @@
+package com.netgrif.quartz.mongodb.cluster;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.SchedulingChangeMode;
+import com.netgrif.quartz.mongodb.TriggerLeases;
+import com.netgrif.quartz.mongodb.UpcomingTriggerIndex;
+import com.netgrif.quartz.mongodb.dao.SignalsDao;
+import com.netgrif.quartz.mongodb.dao.TriggerDao;
+import com.netgrif.quartz.mongodb.db.MongoConnector;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.SchedulerSignaler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wakes up the local scheduler thread when a trigger is scheduled by
+ * another node to fire earlier than the local thread would look again.
+ *
+ * <p>Inserted and updated next fire times are read from a change stream
+ * on the triggers collection, or from a tailable cursor on the signals
+ * collection when change streams are not available. Changes made by this
+ * node and next fire times beyond the horizon are skipped, as the local
+ * thread finds those triggers anyway.</p>
+ */
+public class SchedulingChangeWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(SchedulingChangeWatcher.class);
+
+    private static final long MAX_AWAIT_MILLIS = 1000;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final MongoCollection<Document> triggerCollection;
+    private final SignalsDao signalsDao;
+    private final MongoConnector mongoConnector;
+    private final SchedulerSignaler signaler;
+    private final SchedulingChangeMode mode;
+    private final Clock clock;
+    private final String instanceId;
+    private final UpcomingTriggerIndex upcomingTriggers;
+    private final TriggerLeases triggerLeases;
+    private final long horizonMillis;
+
+    private volatile boolean running;
+    private Thread thread;
+    private boolean usingSignals;
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> changeStream;
+    private BsonDocument resumeToken;
+    private ObjectId lastSignal;
+    private long signaledTime = Long.MIN_VALUE;
+
+    public SchedulingChangeWatcher(MongoCollection<Document> triggerCollection, SignalsDao signalsDao,
+                                   MongoConnector mongoConnector, SchedulerSignaler signaler,
+                                   SchedulingChangeMode mode, Clock clock, String instanceId) {
+        this(triggerCollection, signalsDao, mongoConnector, signaler, mode, clock, instanceId, null, null,
+                Long.MAX_VALUE);
+    }
+
+    /**
+     * @param upcomingTriggers index to invalidate on changes, as its own stream may lag behind, may be null
+     * @param triggerLeases    leases to refill on changes, may be null
+     * @param horizonMillis    time from now after which next fire times are skipped, at least
+     *                         the idle wait time and the horizons of the index and leases
+     */
+    public SchedulingChangeWatcher(MongoCollection<Document> triggerCollection, SignalsDao signalsDao,
+                                   MongoConnector mongoConnector, SchedulerSignaler signaler,
+                                   SchedulingChangeMode mode, Clock clock, String instanceId,
+                                   UpcomingTriggerIndex upcomingTriggers, TriggerLeases triggerLeases,
+                                   long horizonMillis) {
+        this.triggerCollection = triggerCollection;
+        this.signalsDao = signalsDao;
+        this.mongoConnector = mongoConnector;
+        this.signaler = signaler;
+        this.mode = mode;
+        this.clock = clock;
+        this.instanceId = instanceId;
+        this.upcomingTriggers = upcomingTriggers;
+        this.triggerLeases = triggerLeases;
+        this.horizonMillis = horizonMillis;
+    }
+
+    /**
+     * Start watching, unless turned off. Falls back to the signals collection
+     * in auto mode when change streams are not supported by the server.
+     *
+     * @throws SchedulerConfigException when the configured mode is not supported
+     */
+    public void start() throws SchedulerConfigException {
+        if (mode == SchedulingChangeMode.OFF) {
+            return;
+        }
+        if (mode != SchedulingChangeMode.SIGNALS) {
+            try {
+                changeStream = openChangeStream();
+            } catch (MongoCommandException e) {
+                if (mode == SchedulingChangeMode.STREAM) {
+                    throw new SchedulerConfigException("Change streams are not available", e);
+                }
+                log.info("Change streams are not available, using signals collection: {}", e.getErrorMessage());
+            }
+        }
+        if (changeStream == null) {
+            try {
+                signalsDao.createCollection(mongoConnector);
+            } catch (UnsupportedOperationException | MongoException e) {
+                throw new SchedulerConfigException("Cannot create signals collection", e);
+            }
+            lastSignal = signalsDao.findLastId();
+            signalsDao.startPublishing();
+            usingSignals = true;
+        }
+
+        log.info("Starting scheduling change watcher for scheduler instance: {}", instanceId);
+        running = true;
+        thread = new Thread(this::watch, "quartz-mongodb-scheduling-changes-" + instanceId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching.
+     */
+    public void shutdown() {
+        if (thread == null) {
+            return;
+        }
+        log.info("Stopping scheduling change watcher for scheduler instance: {}", instanceId);
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * Signal the scheduler about a trigger stored with given next fire time,
+     * unless it's beyond the horizon or the scheduler has already been
+     * signaled to look again before that time.
+     *
+     * @param nextFireTime next fire time of the trigger, may be null
+     */
+    public synchronized void signalSchedulingChange(Date nextFireTime) {
+        if (nextFireTime == null) {
+            return;
+        }
+        long time = nextFireTime.getTime();
+        long now = clock.millis();
+        if (time - now > horizonMillis) {
+            return;
+        }
+        if (upcomingTriggers != null) {
+            upcomingTriggers.invalidate();
+        }
+        if (triggerLeases != null) {
+            triggerLeases.requestRefill();
+        }
+        if (signaledTime > now && time >= signaledTime) {
+            return;
+        }
+        signaledTime = time;
+        signaler.signalSchedulingChange(time);
+    }
+
+    private void watch() {
+        while (running) {
+            try {
+                if (usingSignals) {
+                    watchSignals();
+                } else {
+                    watchChangeStream();
+                }
+            } catch (MongoException e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("Watching scheduling changes failed, retrying: {}", e.getMessage());
+                if (e instanceof MongoCommandException) {
+                    // resume token may be gone from the oplog
+                    resumeToken = null;
+                }
+                sleep();
+            }
+        }
+    }
+
+    private void watchChangeStream() {
+        if (changeStream == null) {
+            changeStream = openChangeStream();
+        }
+        try {
+            while (running) {
+                ChangeStreamDocument<Document> change = changeStream.tryNext();
+                resumeToken = changeStream.getResumeToken();
+                if (change != null && !isOwnChange(change)) {
+                    signalSchedulingChange(nextFireTimeOf(change));
+                }
+            }
+        } finally {
+            changeStream.close();
+            changeStream = null;
+        }
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openChangeStream() {
+        List<Bson> pipeline = Collections.singletonList(Aggregates.match(Filters.or(
+                Filters.in("operationType", "insert", "replace"),
+                Filters.exists("updateDescription.updatedFields." + Constants.TRIGGER_NEXT_FIRE_TIME))));
+        ChangeStreamIterable<Document> stream = triggerCollection.watch(pipeline)
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (resumeToken != null) {
+            stream.resumeAfter(resumeToken);
+        }
+        return stream.cursor();
+    }
+
+    private boolean isOwnChange(ChangeStreamDocument<Document> change) {
+        String changedBy = null;
+        if (change.getFullDocument() != null) {
+            changedBy = change.getFullDocument().getString(Constants.TRIGGER_CHANGED_BY);
+        } else if (change.getUpdateDescription() != null && change.getUpdateDescription().getUpdatedFields() != null) {
+            BsonValue value = change.getUpdateDescription().getUpdatedFields().get(Constants.TRIGGER_CHANGED_BY);
+            if (value != null && value.isString()) {
+                changedBy = value.asString().getValue();
+            }
+        }
+        return TriggerDao.isChangedBy(changedBy, instanceId);
+    }
+
+    private static Date nextFireTimeOf(ChangeStreamDocument<Document> change) {
+        if (change.getFullDocument() != null) {
+            return change.getFullDocument().getDate(Constants.TRIGGER_NEXT_FIRE_TIME);
+        }
+        if (change.getUpdateDescription() != null && change.getUpdateDescription().getUpdatedFields() != null) {
+            BsonValue time = change.getUpdateDescription().getUpdatedFields().get(Constants.TRIGGER_NEXT_FIRE_TIME);
+            if (time != null && time.isDateTime()) {
+                return new Date(time.asDateTime().getValue());
+            }
+        }
+        return null;
+    }
+
+    private void watchSignals() {
+        // signals up to the last seen one are skipped, unless it has been evicted meanwhile
+        boolean skipping = lastSignal != null && signalsDao.exists(lastSignal);
+        try (MongoCursor<Document> signals = signalsDao.tail(MAX_AWAIT_MILLIS)) {
+            while (running) {
+                Document signal = signals.tryNext();
+                if (signal == null) {
+                    if (signals.getServerCursor() == null) {
+                        // cursor is dead, open it again
+                        return;
+                    }
+                    continue;
+                }
+                ObjectId id = signal.getObjectId("_id");
+                if (skipping) {
+                    skipping = !id.equals(lastSignal);
+                    continue;
+                }
+                lastSignal = id;
+                if (!SignalsDao.isPublishedBy(signal, instanceId)) {
+                    signalSchedulingChange(signal.getDate(Constants.TRIGGER_NEXT_FIRE_TIME));
+                }
+            }
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RETRY_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
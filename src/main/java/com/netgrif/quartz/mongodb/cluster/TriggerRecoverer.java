@@ -38,7 +38,7 @@ public class TriggerRecoverer {
     }
 
     public void recover() throws JobPersistenceException {
-        for (TriggerKey key : locksDao.findOwnTriggersLocks()) {
+        for (TriggerKey key : lockManager.findOwnAcquiredTriggers()) {
             OperableTrigger trigger = triggerDao.getTrigger(key);
             if (trigger == null) {
                 continue;
@@ -46,7 +46,7 @@ public class TriggerRecoverer {
 
             // Make the trigger's lock fresh for other nodes,
             // so they don't recover it.
-            if (locksDao.updateOwnLock(trigger.getKey())) {
+            if (lockManager.refreshOwn(trigger.getKey())) {
                 doRecovery(trigger);
                 lockManager.unlockAcquiredTrigger(trigger);
             }
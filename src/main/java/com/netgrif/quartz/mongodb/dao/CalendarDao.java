@@ -2,12 +2,14 @@ package com.netgrif.quartz.mongodb.dao;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Projections;
+import com.netgrif.quartz.mongodb.util.BoundedCache;
+import com.netgrif.quartz.mongodb.util.Clock;
 import com.netgrif.quartz.mongodb.util.SerialUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.bson.types.Binary;
+import org.bson.types.ObjectId;
 import org.quartz.Calendar;
 import org.quartz.JobPersistenceException;
 
@@ -18,19 +20,43 @@ public class CalendarDao {
 
     static final String CALENDAR_NAME = "name";
     static final String CALENDAR_SERIALIZED_OBJECT = "serializedObject";
+    /**
+     * Changes with every store of the calendar, so cached copies can be validated.
+     */
+    static final String CALENDAR_VERSION = "version";
 
     private final MongoCollection<Document> calendarCollection;
+    private final BoundedCache<String, CachedCalendar> cache;
+    private final Clock clock;
+    private final long cacheTtlMillis;
 
     public CalendarDao(MongoCollection<Document> calendarCollection) {
+        this(calendarCollection, 0, 0, Clock.SYSTEM_CLOCK);
+    }
+
+    /**
+     * @param cacheSize      maximum number of cached calendars, 0 disables the cache
+     * @param cacheTtlMillis time for which a cached calendar is used without checking its version
+     */
+    public CalendarDao(MongoCollection<Document> calendarCollection, int cacheSize, long cacheTtlMillis,
+                       Clock clock) {
         this.calendarCollection = calendarCollection;
+        this.cache = new BoundedCache<String, CachedCalendar>(cacheSize);
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.clock = clock;
     }
 
     public void clear() {
         calendarCollection.deleteMany(new Document());
+        cache.clear();
+    }
+
+    public BoundedCache<String, ?> getCache() {
+        return cache;
     }
 
     public void createIndex() {
-        calendarCollection.createIndex(Projections.include(CALENDAR_NAME), new IndexOptions().unique(true));
+        calendarCollection.createIndexes(IndexCatalog.CALENDAR_INDEXES);
     }
 
     public MongoCollection<Document> getCollection() {
@@ -42,6 +68,7 @@ public class CalendarDao {
     }
 
     public boolean remove(String name) {
+        cache.remove(name);
         Bson searchObj = Filters.eq(CALENDAR_NAME, name);
         if (calendarCollection.countDocuments(searchObj) > 0) {
             calendarCollection.deleteMany(searchObj);
@@ -52,19 +79,54 @@ public class CalendarDao {
 
     public Calendar retrieveCalendar(String calName) throws JobPersistenceException {
         if (calName != null) {
+            if (cache.isEnabled()) {
+                CachedCalendar cached = cache.get(calName, c -> isCurrent(calName, c));
+                if (cached != null) {
+                    return cached.copy();
+                }
+            }
             Bson searchObj = Filters.eq(CALENDAR_NAME, calName);
-            Document doc = calendarCollection.find(searchObj).first();
-            if (doc != null) {
-                Binary serializedCalendar = doc.get(CALENDAR_SERIALIZED_OBJECT, Binary.class);
-                return SerialUtils.deserialize(serializedCalendar, Calendar.class);
+            return toCalendar(calendarCollection.find(searchObj).first());
+        }
+        return null;
+    }
+
+    /**
+     * Convert calendar document, reusing the cached calendar of the same version.
+     * Documents stored without a version are never cached.
+     *
+     * @param doc calendar document, may be null
+     * @return calendar of the caller, or null when there is no document
+     */
+    public Calendar toCalendar(Document doc) throws JobPersistenceException {
+        if (doc != null) {
+            String name = doc.getString(CALENDAR_NAME);
+            Object version = doc.get(CALENDAR_VERSION);
+            boolean cacheable = cache.isEnabled() && version != null;
+            if (cacheable) {
+                CachedCalendar cached = cache.get(name, c -> version.equals(c.version));
+                if (cached != null) {
+                    cached.checkedAt = clock.millis();
+                    return cached.copy();
+                }
             }
+            Binary serializedCalendar = doc.get(CALENDAR_SERIALIZED_OBJECT, Binary.class);
+            Calendar calendar = SerialUtils.deserialize(serializedCalendar, Calendar.class);
+            if (!cacheable) {
+                return calendar;
+            }
+            CachedCalendar cached = new CachedCalendar(version, calendar, clock.millis());
+            cache.put(name, cached);
+            return cached.copy();
         }
         return null;
     }
 
     public void store(String name, Calendar calendar) throws JobPersistenceException {
+        cache.remove(name);
         Document doc = new Document(CALENDAR_NAME, name)
-            .append(CALENDAR_SERIALIZED_OBJECT, SerialUtils.serialize(calendar));
+            .append(CALENDAR_SERIALIZED_OBJECT, SerialUtils.serialize(calendar))
+            .append(CALENDAR_VERSION, new ObjectId());
         calendarCollection.insertOne(doc);
     }
 
@@ -75,4 +137,42 @@ public class CalendarDao {
                 .map(document -> document.getString(CALENDAR_NAME))
                 .into(new LinkedList<>());
     }
+
+    /**
+     * Check that cached calendar is still the stored one. Only its version
+     * is read and only after the cached calendar is older than the ttl.
+     */
+    private boolean isCurrent(String name, CachedCalendar cached) {
+        long now = clock.millis();
+        if (now - cached.checkedAt <= cacheTtlMillis) {
+            return true;
+        }
+        Document doc = calendarCollection.find(Filters.eq(CALENDAR_NAME, name))
+                .projection(Projections.include(CALENDAR_VERSION))
+                .first();
+        if (doc != null && cached.version.equals(doc.get(CALENDAR_VERSION))) {
+            cached.checkedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    private static class CachedCalendar {
+        private final Object version;
+        private final Calendar calendar;
+        private volatile long checkedAt;
+
+        CachedCalendar(Object version, Calendar calendar, long checkedAt) {
+            this.version = version;
+            this.calendar = calendar;
+            this.checkedAt = checkedAt;
+        }
+
+        /**
+         * Callers may change their calendar, so the cached one is never handed out.
+         */
+        Calendar copy() {
+            return (Calendar) calendar.clone();
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package com.netgrif.quartz.mongodb.dao;
+
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.util.Keys;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.quartz.TriggerKey;
+
+import java.util.*;
+
+/**
+ * Reads triggers together with their job and calendar documents,
+ * so a {@link org.quartz.spi.TriggerFiredBundle} can be built without
+ * further queries.
+ *
+ * <p>Every returned document is a trigger document with the job document
+ * under {@link #JOB_FIELD} and the calendar document under
+ * {@link #CALENDAR_FIELD}. These fields are missing when the trigger
+ * has no job or no calendar.</p>
+ */
+public class FireBundleDao {
+
+    public static final String JOB_FIELD = "job";
+    public static final String CALENDAR_FIELD = "calendar";
+
+    private final MongoCollection<Document> triggerCollection;
+    private final String jobCollectionName;
+    private final String calendarCollectionName;
+
+    public FireBundleDao(TriggerDao triggerDao, JobDao jobDao, CalendarDao calendarDao) {
+        this.triggerCollection = triggerDao.getCollection();
+        this.jobCollectionName = jobDao.getCollection().getNamespace().getCollectionName();
+        this.calendarCollectionName = calendarDao.getCollection().getNamespace().getCollectionName();
+    }
+
+    /**
+     * Find triggers matching given filter in order of their next fire time.
+     *
+     * @param filter filter of eligible triggers, see {@link TriggerDao}
+     * @param limit  maximum number of triggers, 0 for no limit
+     */
+    public AggregateIterable<Document> findInFireOrder(Bson filter, int limit) {
+        List<Bson> pipeline = new ArrayList<Bson>();
+        pipeline.add(Aggregates.match(filter));
+        pipeline.add(Aggregates.sort(Sorts.ascending(Constants.TRIGGER_NEXT_FIRE_TIME)));
+        if (limit > 0) {
+            pipeline.add(Aggregates.limit(limit));
+        }
+        pipeline.addAll(createLookups());
+        return triggerCollection.aggregate(pipeline);
+    }
+
+    /**
+     * Find job and calendar documents of given triggers.
+     *
+     * @param keys triggers to look up
+     * @return documents with trigger key, state, next fire time, change stamp,
+     * job and calendar fields by trigger key
+     */
+    public Map<TriggerKey, Document> findByKeys(Collection<TriggerKey> keys) {
+        Map<TriggerKey, Document> found = new HashMap<TriggerKey, Document>();
+        if (keys.isEmpty()) {
+            return found;
+        }
+
+        List<Bson> keyFilters = new ArrayList<Bson>(keys.size());
+        for (TriggerKey key : keys) {
+            keyFilters.add(Keys.toFilter(key));
+        }
+
+        List<Bson> pipeline = new ArrayList<Bson>();
+        pipeline.add(Aggregates.match(Filters.or(keyFilters)));
+        pipeline.addAll(createLookups());
+        pipeline.add(Aggregates.project(Projections.include(
+                Keys.KEY_GROUP, Keys.KEY_NAME, Constants.TRIGGER_STATE, Constants.TRIGGER_NEXT_FIRE_TIME,
+                Constants.TRIGGER_CHANGED_BY, JOB_FIELD, CALENDAR_FIELD)));
+
+        for (Document doc : triggerCollection.aggregate(pipeline)) {
+            found.put(Keys.toTriggerKey(doc), doc);
+        }
+        return found;
+    }
+
+    private List<Bson> createLookups() {
+        return Arrays.asList(
+                Aggregates.lookup(jobCollectionName, Constants.TRIGGER_JOB_ID, "_id", JOB_FIELD),
+                Aggregates.lookup(calendarCollectionName, Constants.TRIGGER_CALENDAR_NAME,
+                        CalendarDao.CALENDAR_NAME, CALENDAR_FIELD),
+                // $lookup gives arrays, keep the single matching document only
+                Aggregates.addFields(
+                        new Field<Document>(JOB_FIELD, firstOf(JOB_FIELD)),
+                        new Field<Document>(CALENDAR_FIELD, firstOf(CALENDAR_FIELD))));
+    }
+
+    private static Document firstOf(String field) {
+        return new Document("$arrayElemAt", Arrays.asList("$" + field, 0));
+    }
+}
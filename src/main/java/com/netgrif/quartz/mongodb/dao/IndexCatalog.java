@@ -0,0 +1,207 @@
+package com.netgrif.quartz.mongodb.dao;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.util.Keys;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.quartz.SchedulerConfigException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Declares all indexes required by the store and verifies that the hot
+ * queries are actually served by them.
+ *
+ * <p>DAOs create their indexes from the declarations kept here, so this is
+ * the single place to look at when a query needs a new index.</p>
+ */
+public class IndexCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexCatalog.class);
+
+    /**
+     * What to do when a hot query is not served by an index.
+     */
+    public enum PlanCheck {
+        /** Do not explain hot queries at all. */
+        OFF,
+        /** Log a warning for every offending query. */
+        WARN,
+        /** Refuse to start the scheduler. */
+        FAIL;
+
+        public static PlanCheck fromProperty(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Plan stages which mean that a query reads the whole collection
+     * or sorts its result in memory.
+     */
+    private static final Set<String> OFFENDING_STAGES = new HashSet<>(Arrays.asList("COLLSCAN", "SORT"));
+
+    static final List<IndexModel> JOB_INDEXES = Collections.singletonList(
+            new IndexModel(Keys.KEY_AND_GROUP_FIELDS, new IndexOptions().unique(true)));
+
+    static final List<IndexModel> TRIGGER_INDEXES = Arrays.asList(
+            new IndexModel(Keys.KEY_AND_GROUP_FIELDS, new IndexOptions().unique(true)),
+            // Serves TriggerDao.findEligibleToRun: equality on state, range and sort on nextFireTime.
+            new IndexModel(Indexes.ascending(Constants.TRIGGER_STATE, Constants.TRIGGER_NEXT_FIRE_TIME)),
+            // Serves partitioned acquisition: equality on state, own buckets, range and merged sort on nextFireTime.
+            new IndexModel(Indexes.ascending(Constants.TRIGGER_STATE, Constants.TRIGGER_BUCKET,
+                    Constants.TRIGGER_NEXT_FIRE_TIME)),
+            // Serves lookups of triggers by their job, see TriggerDao and TriggerGroupHelper.
+            new IndexModel(Indexes.ascending(Constants.TRIGGER_JOB_ID)),
+            // Serves lookups of triggers claimed by an instance, only claimed triggers have an owner.
+            new IndexModel(Indexes.ascending(Constants.TRIGGER_OWNER), new IndexOptions().sparse(true)));
+
+    static final List<IndexModel> LOCK_INDEXES = Arrays.asList(
+            new IndexModel(Projections.include(Keys.KEY_GROUP, Keys.KEY_NAME, Keys.LOCK_TYPE),
+                    new IndexOptions().unique(true)),
+            // Needed to stop table scans when looking up or removing all locks of an instance.
+            new IndexModel(Projections.include(Constants.LOCK_INSTANCE_ID)));
+
+    static final List<IndexModel> CALENDAR_INDEXES = Collections.singletonList(
+            new IndexModel(Projections.include(CalendarDao.CALENDAR_NAME), new IndexOptions().unique(true)));
+
+    static final List<IndexModel> SCHEDULER_INDEXES = Collections.singletonList(
+            new IndexModel(Projections.include(SchedulerDao.SCHEDULER_NAME_FIELD, SchedulerDao.INSTANCE_ID_FIELD),
+                    new IndexOptions().unique(true)));
+
+    private final JobDao jobDao;
+    private final TriggerDao triggerDao;
+    private final LocksDao locksDao;
+    private final CalendarDao calendarDao;
+    private final SchedulerDao schedulerDao;
+
+    public IndexCatalog(JobDao jobDao, TriggerDao triggerDao, LocksDao locksDao,
+                        CalendarDao calendarDao, SchedulerDao schedulerDao) {
+        this.jobDao = jobDao;
+        this.triggerDao = triggerDao;
+        this.locksDao = locksDao;
+        this.calendarDao = calendarDao;
+        this.schedulerDao = schedulerDao;
+    }
+
+    /**
+     * Creates all declared indexes, removes the obsolete ones and stores
+     * buckets of triggers stored without one.
+     *
+     * @param clustered whether the store runs in clustered mode
+     */
+    public void ensureIndexes(boolean clustered) {
+        /*
+         * Indexes are to be declared as group then name.  This is important as the quartz API allows
+         * for the searching of jobs and triggers using a group matcher.  To be able to use the compound
+         * index using group alone (as the API allows), group must be the first key in that index.
+         *
+         * To be consistent, all such indexes are ensured in the order group then name.  The previous
+         * indexes are removed after we have "ensured" the new ones.
+         */
+        jobDao.createIndex();
+        triggerDao.createIndex();
+        locksDao.createIndex(clustered);
+        calendarDao.createIndex();
+        schedulerDao.createIndex();
+
+        // Drop the old indexes that were declared as name then group rather than group then name
+        dropLegacyIndex(jobDao::dropIndex);
+        dropLegacyIndex(triggerDao::dropIndex);
+        dropLegacyIndex(locksDao::dropIndex);
+
+        // Triggers stored before partitioning have no bucket, the bucket index wouldn't serve them
+        int assigned = triggerDao.assignBuckets();
+        if (assigned > 0) {
+            log.info("Assigned buckets to {} triggers stored without one.", assigned);
+        }
+    }
+
+    /**
+     * Explains the hot queries and reports those which scan a whole collection
+     * or sort in memory.
+     *
+     * @param mode what to do with offending queries
+     * @throws SchedulerConfigException when mode is {@link PlanCheck#FAIL} and some query offends
+     */
+    public void checkQueryPlans(PlanCheck mode) throws SchedulerConfigException {
+        if (mode == PlanCheck.OFF) {
+            return;
+        }
+
+        List<String> offenders = new ArrayList<>();
+        for (Map.Entry<String, FindIterable<Document>> query : hotQueries().entrySet()) {
+            Document plan = query.getValue().explain(ExplainVerbosity.QUERY_PLANNER);
+            Set<String> stages = findOffendingStages(plan);
+            if (stages.isEmpty()) {
+                log.debug("Query '{}' is served by an index.", query.getKey());
+            } else {
+                offenders.add(query.getKey() + " " + stages);
+                log.warn("Query '{}' is not served by an index, its plan contains {}.",
+                        query.getKey(), stages);
+            }
+        }
+
+        if (mode == PlanCheck.FAIL && !offenders.isEmpty()) {
+            throw new SchedulerConfigException("Queries not served by an index: " + offenders);
+        }
+    }
+
+    /**
+     * Returns names of offending stages found anywhere in the winning plan.
+     */
+    public static Set<String> findOffendingStages(Document explained) {
+        Set<String> found = new TreeSet<>();
+        Object queryPlanner = explained.get("queryPlanner");
+        if (queryPlanner instanceof Document) {
+            collectStages(((Document) queryPlanner).get("winningPlan"), found);
+        }
+        return found;
+    }
+
+    private static void collectStages(Object node, Set<String> found) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            Object stage = doc.get("stage");
+            if (stage instanceof String && OFFENDING_STAGES.contains(stage)) {
+                found.add((String) stage);
+            }
+            for (Object child : doc.values()) {
+                collectStages(child, found);
+            }
+        } else if (node instanceof List) {
+            for (Object child : (List<?>) node) {
+                collectStages(child, found);
+            }
+        }
+    }
+
+    private Map<String, FindIterable<Document>> hotQueries() {
+        Map<String, FindIterable<Document>> queries = new LinkedHashMap<>();
+        queries.put("triggers eligible to run", triggerDao.findEligibleToRun(new Date()));
+        queries.put("triggers by job", triggerDao.findByJobId(new ObjectId()));
+        queries.put("own trigger locks", locksDao.getCollection()
+                .find(Keys.createTriggersLocksFilter(locksDao.instanceId)));
+        queries.put("job by key", jobDao.getCollection()
+                .find(Filters.and(Filters.eq(Keys.KEY_GROUP, ""), Filters.eq(Keys.KEY_NAME, ""))));
+        return queries;
+    }
+
+    private void dropLegacyIndex(Runnable drop) {
+        try {
+            drop.run();
+        } catch (MongoCommandException cfe) {
+            // Ignore, the old indexes have already been removed
+        }
+    }
+}
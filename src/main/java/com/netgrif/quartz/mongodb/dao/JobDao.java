@@ -3,15 +3,19 @@ package com.netgrif.quartz.mongodb.dao;
 import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.result.DeleteResult;
 import com.netgrif.quartz.mongodb.JobConverter;
+import com.netgrif.quartz.mongodb.LazyJobDataMap;
+import com.netgrif.quartz.mongodb.SnapshotJobDataMap;
+import com.netgrif.quartz.mongodb.util.BoundedCache;
 import com.netgrif.quartz.mongodb.util.GroupHelper;
+import com.netgrif.quartz.mongodb.util.JobDataValues;
 import com.netgrif.quartz.mongodb.util.Keys;
 import com.netgrif.quartz.mongodb.util.QueryHelper;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
+import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
 import org.quartz.JobPersistenceException;
@@ -28,13 +32,23 @@ public class JobDao {
     private final QueryHelper queryHelper;
     private final GroupHelper groupHelper;
     private final JobConverter jobConverter;
+    private final BoundedCache<JobKey, CachedJob> cache;
 
     public JobDao(MongoCollection<Document> jobCollection,
                   QueryHelper queryHelper, JobConverter jobConverter) {
+        this(jobCollection, queryHelper, jobConverter, 0);
+    }
+
+    /**
+     * @param cacheSize maximum number of cached jobs, 0 disables the cache
+     */
+    public JobDao(MongoCollection<Document> jobCollection,
+                  QueryHelper queryHelper, JobConverter jobConverter, int cacheSize) {
         this.jobCollection = jobCollection;
         this.queryHelper = queryHelper;
         this.groupHelper = new GroupHelper(jobCollection, queryHelper);
         this.jobConverter = jobConverter;
+        this.cache = new BoundedCache<JobKey, CachedJob>(cacheSize);
     }
 
     public MongoCollection<Document> getCollection() {
@@ -42,11 +56,24 @@ public class JobDao {
     }
 
     public DeleteResult clear() {
+        cache.clear();
         return jobCollection.deleteMany(new Document());
     }
 
+    /**
+     * Forget resolved job classes and cached jobs, so job classes are loaded again.
+     */
+    public void clearClassCache() {
+        jobConverter.clearClassCache();
+        cache.clear();
+    }
+
+    public BoundedCache<JobKey, ?> getCache() {
+        return cache;
+    }
+
     public void createIndex() {
-        jobCollection.createIndex(Keys.KEY_AND_GROUP_FIELDS, new IndexOptions().unique(true));
+        jobCollection.createIndexes(IndexCatalog.JOB_INDEXES);
     }
 
     public void dropIndex() {
@@ -95,6 +122,9 @@ public class JobDao {
     }
 
     public void remove(Bson keyObject) {
+        // Filter may match any jobs, removed jobs on other nodes are
+        // recognized by missing document anyway.
+        cache.clear();
         jobCollection.deleteMany(keyObject);
     }
 
@@ -105,12 +135,41 @@ public class JobDao {
     }
 
     public JobDetail retrieveJob(JobKey jobKey) throws JobPersistenceException {
-        Document doc = getJob(jobKey);
+        return toJobDetail(getJob(jobKey));
+    }
+
+    /**
+     * Convert job document, reusing the cached job of the same version
+     * instead of loading its class and deserializing its job data again.
+     * The returned job is never the cached instance and its job data values
+     * are copied, so changes of its job data map don't leak into the cache.
+     * Jobs with job data values which can't be copied, e.g. deserialized
+     * objects, aren't cached.
+     *
+     * @param doc job document, may be null
+     * @return job or null when there is no document
+     */
+    public JobDetail toJobDetail(Document doc) throws JobPersistenceException {
         if (doc == null) {
             //Return null if job does not exist, per interface
             return null;
         }
-        return jobConverter.toJobDetail(doc);
+        if (!cache.isEnabled()) {
+            return jobConverter.toJobDetail(doc);
+        }
+
+        JobKey key = Keys.toJobKey(doc);
+        CachedJob cached = cache.get(key, job -> job.isVersionOf(doc));
+        if (cached == null) {
+            JobDetail job = jobConverter.toJobDetail(doc);
+            cached = new CachedJob(doc, job);
+            if (!cached.copyable) {
+                // values which can't be copied would be shared by every caller
+                return job;
+            }
+            cache.put(key, cached);
+        }
+        return cached.copy();
     }
 
     public ObjectId storeJobInMongo(JobDetail newJob, boolean replaceExisting) throws JobPersistenceException {
@@ -121,11 +180,14 @@ public class JobDao {
 
         Document object = getJob(keyDbo);
 
+        cache.remove(key);
         ObjectId objectId = null;
         if (object != null && replaceExisting) {
+            job.put(JobConverter.JOB_VERSION, new ObjectId());
             jobCollection.replaceOne(keyDbo, job);
         } else if (object == null) {
             try {
+                job.put(JobConverter.JOB_VERSION, new ObjectId());
                 jobCollection.insertOne(job);
                 objectId = job.getObjectId("_id");
             } catch (MongoWriteException e) {
@@ -140,7 +202,87 @@ public class JobDao {
         return objectId;
     }
 
+    /**
+     * Store job data of the job after it has been executed. When the job data
+     * is stored as plain object, only keys changed since the job was loaded
+     * are written.
+     */
+    public void storeJobData(JobDetail job) throws JobPersistenceException {
+        Document update = jobConverter.toJobDataUpdate(job);
+        if (update == null) {
+            storeJobInMongo(job, true);
+            return;
+        }
+        if (update.isEmpty()) {
+            return;
+        }
+
+        cache.remove(job.getKey());
+        Document set = update.get("$set", Document.class);
+        if (set == null) {
+            set = new Document();
+            update.append("$set", set);
+        }
+        set.append(JobConverter.JOB_VERSION, new ObjectId());
+        if (jobCollection.updateOne(toFilter(job.getKey()), update).getMatchedCount() == 0) {
+            // removed meanwhile, store it as a whole as before
+            storeJobInMongo(job, true);
+        } else if (job.getJobDataMap() instanceof SnapshotJobDataMap) {
+            ((SnapshotJobDataMap) job.getJobDataMap()).takeSnapshot();
+        }
+    }
+
     private Collection<Document> findMatching(GroupMatcher<JobKey> matcher) {
         return groupHelper.inGroupsThatMatch(matcher);
     }
+
+    /**
+     * Converted job together with the identity and version of its document.
+     * A job stored again under the same key after removal has a new id.
+     * Every write stores a new version, unique even when nodes write at once.
+     */
+    private static class CachedJob {
+        private final Object id;
+        private final Object version;
+        private final JobDetail job;
+        private final boolean copyable;
+
+        CachedJob(Document doc, JobDetail job) {
+            if (job.getJobDataMap() instanceof LazyJobDataMap) {
+                // read once here rather than by every copy
+                ((LazyJobDataMap) job.getJobDataMap()).materialize();
+            }
+            this.id = doc.get("_id");
+            this.version = doc.get(JobConverter.JOB_VERSION);
+            this.job = job;
+            this.copyable = isCopyable(job.getJobDataMap());
+        }
+
+        boolean isVersionOf(Document doc) {
+            return Objects.equals(id, doc.get("_id"))
+                    && Objects.equals(version, doc.get(JobConverter.JOB_VERSION));
+        }
+
+        /**
+         * Copy the job with its job data, so changing nested values of one
+         * copy, e.g. during concurrent executions, doesn't change the cached job.
+         */
+        JobDetail copy() {
+            // clones the job data map, but not its values
+            JobDetail copy = (JobDetail) job.clone();
+            for (Map.Entry<String, Object> entry : copy.getJobDataMap().getWrappedMap().entrySet()) {
+                entry.setValue(JobDataValues.copy(entry.getValue()));
+            }
+            return copy;
+        }
+
+        private static boolean isCopyable(JobDataMap jobData) {
+            for (Object value : jobData.getWrappedMap().values()) {
+                if (!JobDataValues.isCopyable(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
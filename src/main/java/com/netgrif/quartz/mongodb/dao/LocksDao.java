@@ -1,10 +1,20 @@
 package com.netgrif.quartz.mongodb.dao;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Variable;
 import com.mongodb.client.result.UpdateResult;
 import com.netgrif.quartz.mongodb.util.Clock;
 import org.bson.Document;
@@ -17,17 +27,28 @@ import org.quartz.spi.OperableTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.netgrif.quartz.mongodb.Constants.LOCK_INSTANCE_ID;
+import static com.netgrif.quartz.mongodb.Constants.LOCK_TIME;
 import static com.netgrif.quartz.mongodb.util.Keys.*;
 
 public class LocksDao {
 
     private static final Logger log = LoggerFactory.getLogger(LocksDao.class);
 
+    private static final String LIVE_LOCK_FIELD = "liveLock";
+
     private final MongoCollection<Document> locksCollection;
     private Clock clock;
     public final String instanceId;
@@ -43,14 +64,9 @@ public class LocksDao {
     }
 
     public void createIndex(boolean clustered) {
-        locksCollection.createIndex(
-                Projections.include(KEY_GROUP, KEY_NAME, LOCK_TYPE),
-                new IndexOptions().unique(true));
+        locksCollection.createIndexes(IndexCatalog.LOCK_INDEXES);
 
         if (!clustered) {
-            // Need this to stop table scan when removing all locks
-            locksCollection.createIndex(Projections.include(LOCK_INSTANCE_ID));
-
             // remove all locks for this instance on startup
             locksCollection.deleteMany(Filters.eq(LOCK_INSTANCE_ID, instanceId));
         }
@@ -61,6 +77,39 @@ public class LocksDao {
         locksCollection.dropIndex(KEY_AND_GROUP_FIELDS);
     }
 
+    /**
+     * Creates aggregation stages which drop triggers having a live lock,
+     * so candidates locked by other schedulers aren't even read.
+     * Locks older than the expiry time or owned by defunct schedulers
+     * are not live, their triggers can be taken over.
+     *
+     * <p>Locks are looked up by an expression, which MongoDB serves by the
+     * lock index since 5.0. Older servers read all locks for every trigger.</p>
+     *
+     * @param expiredBefore      locks with older lock time are expired
+     * @param defunctSchedulers  instance ids of schedulers that stopped checking in
+     * @return stages to append after matching triggers
+     */
+    public List<Bson> createLiveLockExclusion(Date expiredBefore, Collection<String> defunctSchedulers) {
+        Bson live = Filters.and(
+                Filters.eq(LOCK_TYPE, LockType.t.name()),
+                Filters.gte(LOCK_TIME, expiredBefore),
+                Filters.nin(LOCK_INSTANCE_ID, defunctSchedulers));
+        List<Bson> lockOfTrigger = Arrays.asList(
+                Aggregates.match(Filters.expr(new Document("$and", Arrays.asList(
+                        new Document("$eq", Arrays.asList("$" + KEY_GROUP, "$$group")),
+                        new Document("$eq", Arrays.asList("$" + KEY_NAME, "$$name")))))),
+                Aggregates.match(live),
+                Aggregates.limit(1),
+                Aggregates.project(Projections.include("_id")));
+        return Arrays.asList(
+                Aggregates.lookup(locksCollection.getNamespace().getCollectionName(),
+                        Arrays.asList(new Variable<String>("group", "$" + KEY_GROUP),
+                                new Variable<String>("name", "$" + KEY_NAME)),
+                        lockOfTrigger, LIVE_LOCK_FIELD),
+                Aggregates.match(Filters.size(LIVE_LOCK_FIELD, 0)));
+    }
+
     public Document findJobLock(JobKey job) {
         Bson filter = createJobLockFilter(job);
         return locksCollection.find(filter).first();
@@ -71,6 +120,25 @@ public class LocksDao {
         return locksCollection.find(filter).first();
     }
 
+    /**
+     * @param keys    triggers whose locks to find
+     * @return existing locks of given triggers by trigger key
+     */
+    public Map<TriggerKey, Document> findTriggerLocks(List<TriggerKey> keys) {
+        Map<TriggerKey, Document> locks = new HashMap<TriggerKey, Document>();
+        if (keys.isEmpty()) {
+            return locks;
+        }
+        List<Bson> filters = new ArrayList<Bson>(keys.size());
+        for (TriggerKey key : keys) {
+            filters.add(createTriggerLockFilter(key));
+        }
+        for (Document lock : locksCollection.find(Filters.or(filters))) {
+            locks.put(toTriggerKey(lock), lock);
+        }
+        return locks;
+    }
+
     public List<TriggerKey> findOwnTriggersLocks() {
         final List<TriggerKey> keys = new LinkedList<>();
         final Bson filter = createTriggersLocksFilter(instanceId);
@@ -80,16 +148,77 @@ public class LocksDao {
         return keys;
     }
 
-    public void lockJob(JobDetail job) {
-        log.debug("Inserting lock for job {}", job.getKey());
-        Document lock = createJobLock(job.getKey(), instanceId, clock.now());
-        insertLock(lock);
+    /**
+     * Insert locks of given jobs in one unordered bulk.
+     *
+     * @param jobs    jobs to lock
+     * @return errors of locks that couldn't be inserted as the jobs are locked already,
+     * indexed by position of the job
+     * @throws MongoBulkWriteException when a lock failed for another reason
+     */
+    public List<BulkWriteError> lockJobs(List<JobDetail> jobs) {
+        if (jobs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Date lockTime = clock.now();
+        List<Document> locks = new ArrayList<Document>(jobs.size());
+        for (JobDetail job : jobs) {
+            log.debug("Inserting lock for job {}", job.getKey());
+            locks.add(createJobLock(job.getKey(), instanceId, lockTime));
+        }
+        try {
+            locksCollection.insertMany(locks, new InsertManyOptions().ordered(false));
+            return Collections.emptyList();
+        } catch (MongoBulkWriteException e) {
+            checkLockedElsewhere(e);
+            return e.getWriteErrors();
+        }
     }
 
-    public void lockTrigger(TriggerKey key) {
-        log.info("Inserting lock for trigger {}", key);
-        Document lock = createTriggerLock(key, instanceId, clock.now());
-        insertLock(lock);
+    /**
+     * Lock given trigger unless it is already locked.
+     *
+     * @param key    trigger to lock
+     * @return true when the lock was created, false when the trigger is already locked
+     */
+    public boolean lockTrigger(TriggerKey key) {
+        log.debug("Inserting lock for trigger {}", key);
+        return insertLock(createTriggerLockFilter(key));
+    }
+
+    /**
+     * Lock given triggers in one unordered bulk of upserts.
+     * Triggers already locked by others are left out of the result.
+     *
+     * @param keys    triggers to lock
+     * @return positions of triggers which have been locked
+     * @throws MongoBulkWriteException when a lock failed for another reason than a racing lock
+     */
+    public Set<Integer> lockTriggers(List<TriggerKey> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Document lock = createLockInsertDocument(instanceId, clock.now());
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        List<UpdateOneModel<Document>> requests = new ArrayList<UpdateOneModel<Document>>(keys.size());
+        for (TriggerKey key : keys) {
+            log.debug("Inserting lock for trigger {}", key);
+            requests.add(new UpdateOneModel<Document>(createTriggerLockFilter(key), lock, upsert));
+        }
+
+        BulkWriteResult result;
+        try {
+            result = locksCollection.bulkWrite(requests, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // upserts racing for the same lock, the others have been applied
+            checkLockedElsewhere(e);
+            result = e.getWriteResult();
+        }
+        Set<Integer> locked = new HashSet<Integer>();
+        for (BulkWriteUpsert inserted : result.getUpserts()) {
+            locked.add(inserted.getIndex());
+        }
+        return locked;
     }
 
     /**
@@ -160,9 +289,35 @@ public class LocksDao {
      * @param trigger    to unlock
      */
     public void unlockTrigger(OperableTrigger trigger) {
-        log.info("Removing trigger lock {}.{}", trigger.getKey(), instanceId);
-        remove(toFilter(trigger.getKey(), instanceId));
-        log.info("Trigger lock {}.{} removed.", trigger.getKey(), instanceId);
+        unlockTrigger(trigger.getKey());
+    }
+
+    /**
+     * Unlock the trigger if it still belongs to the current scheduler.
+     *
+     * @param key    trigger to unlock
+     */
+    public void unlockTrigger(TriggerKey key) {
+        log.info("Removing trigger lock {}.{}", key, instanceId);
+        remove(toFilter(key, instanceId));
+        log.info("Trigger lock {}.{} removed.", key, instanceId);
+    }
+
+    /**
+     * Unlock those of given triggers which still belong to the current scheduler, at once.
+     *
+     * @param keys    triggers to unlock
+     */
+    public void unlockTriggers(Collection<TriggerKey> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<Bson> filters = new ArrayList<Bson>(keys.size());
+        for (TriggerKey key : keys) {
+            filters.add(toFilter(key, instanceId));
+        }
+        log.debug("Removing {} trigger locks of {}", keys.size(), instanceId);
+        remove(Filters.or(filters));
     }
 
     public void unlockJob(JobDetail job) {
@@ -170,8 +325,36 @@ public class LocksDao {
         remove(createJobLockFilter(job.getKey()));
     }
 
-    private void insertLock(Document lock) {
-        locksCollection.insertOne(lock);
+    /**
+     * Upsert the lock, so an existing lock is reported by the result
+     * rather than by a duplicate key error. The filter matches the unique
+     * lock index, so the server retries concurrent upserts of the same lock
+     * instead of failing them.
+     *
+     * @param filter    matches the lock
+     * @return true when the lock was inserted
+     */
+    /**
+     * Rethrow a failed bulk of locks unless all its errors are duplicate keys
+     * of locks held by others.
+     */
+    private static void checkLockedElsewhere(MongoBulkWriteException e) {
+        if (e.getWriteConcernError() != null) {
+            log.error("Failed to insert locks: {}", e.getWriteConcernError().getMessage());
+            throw e;
+        }
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                log.error("Failed to insert lock: {}", error.getMessage());
+                throw e;
+            }
+        }
+    }
+
+    private boolean insertLock(Bson filter) {
+        UpdateResult result = locksCollection.updateOne(filter,
+                createLockInsertDocument(instanceId, clock.now()), new UpdateOptions().upsert(true));
+        return result.getUpsertedId() != null;
     }
 
     private void remove(Bson filter) {
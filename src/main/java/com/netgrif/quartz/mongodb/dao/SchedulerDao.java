@@ -2,9 +2,8 @@ package com.netgrif.quartz.mongodb.dao;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.IndexOptions;
-import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import com.netgrif.quartz.mongodb.cluster.Scheduler;
@@ -28,6 +27,7 @@ public class SchedulerDao {
     public static final String INSTANCE_ID_FIELD = "instanceId";
     public static final String LAST_CHECKIN_TIME_FIELD = "lastCheckinTime";
     public static final String CHECKIN_INTERVAL_FIELD = "checkinInterval";
+    public static final String STANDBY_FIELD = "standby";
 
     public final MongoCollection<Document> schedulerCollection;
 
@@ -37,6 +37,7 @@ public class SchedulerDao {
     public final Clock clock;
 
     private final Bson schedulerFilter;
+    private volatile boolean standby = true;
 
     public SchedulerDao(MongoCollection<Document> schedulerCollection, String schedulerName,
                         String instanceId, long clusterCheckinIntervalMillis, Clock clock) {
@@ -53,9 +54,7 @@ public class SchedulerDao {
     }
 
     public void createIndex() {
-        schedulerCollection.createIndex(
-                Projections.include(SCHEDULER_NAME_FIELD, INSTANCE_ID_FIELD),
-                new IndexOptions().unique(true));
+        schedulerCollection.createIndexes(IndexCatalog.SCHEDULER_INDEXES);
     }
 
     /**
@@ -76,6 +75,17 @@ public class SchedulerDao {
         log.debug("Node {}:{} check-in result: {}", schedulerName, instanceId, result);
     }
 
+    /**
+     * Store whether this node fires triggers, so other nodes don't leave its
+     * buckets to it while it's in standby. Stored with every check-in too.
+     *
+     * @param standby true when the scheduler doesn't fire triggers
+     */
+    public void setStandby(boolean standby) {
+        this.standby = standby;
+        schedulerCollection.updateOne(schedulerFilter, Updates.set(STANDBY_FIELD, standby));
+    }
+
     /**
      * @return Scheduler or null when not found
      */
@@ -154,7 +164,8 @@ public class SchedulerDao {
     private Document createUpdateClause(long lastCheckinTime) {
         return new Document("$set", new Document()
                     .append(LAST_CHECKIN_TIME_FIELD, lastCheckinTime)
-                    .append(CHECKIN_INTERVAL_FIELD, clusterCheckinIntervalMillis));
+                    .append(CHECKIN_INTERVAL_FIELD, clusterCheckinIntervalMillis)
+                    .append(STANDBY_FIELD, standby));
     }
 
     private Consumer<Document> createResultConverter(final List<Scheduler> schedulers) {
@@ -166,6 +177,7 @@ public class SchedulerDao {
                 document.getString(SCHEDULER_NAME_FIELD),
                 document.getString(INSTANCE_ID_FIELD),
                 document.getLong(LAST_CHECKIN_TIME_FIELD),
-                document.getLong(CHECKIN_INTERVAL_FIELD));
+                document.getLong(CHECKIN_INTERVAL_FIELD),
+                document.getBoolean(STANDBY_FIELD, false));
     }
 }
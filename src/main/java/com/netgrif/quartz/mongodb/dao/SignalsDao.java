@@ -0,0 +1,113 @@
+package com.netgrif.quartz.mongodb.dao;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.db.MongoConnector;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capped collection of next fire times of stored triggers, tailed by other
+ * nodes when change streams are not available.
+ */
+public class SignalsDao {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalsDao.class);
+
+    private static final long COLLECTION_SIZE_BYTES = 1024 * 1024;
+
+    private final MongoCollection<Document> signalsCollection;
+    private final String instanceId;
+    private volatile boolean publishing;
+
+    public SignalsDao(MongoCollection<Document> signalsCollection) {
+        this(signalsCollection, null);
+    }
+
+    /**
+     * @param instanceId instance published with every signal, so it can skip its own ones
+     */
+    public SignalsDao(MongoCollection<Document> signalsCollection, String instanceId) {
+        this.signalsCollection = signalsCollection;
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * @return true when the signal has been published by given instance
+     */
+    public static boolean isPublishedBy(Document signal, String instanceId) {
+        return instanceId.equals(signal.getString(Constants.LOCK_INSTANCE_ID));
+    }
+
+    /**
+     * Create the capped collection, with a first signal, as a tailable cursor
+     * on an empty collection is closed right away.
+     */
+    public void createCollection(MongoConnector connector) {
+        connector.createCappedCollection(signalsCollection.getNamespace().getCollectionName(), COLLECTION_SIZE_BYTES);
+        if (signalsCollection.countDocuments() == 0) {
+            signalsCollection.insertOne(new Document());
+        }
+    }
+
+    /**
+     * Start publishing signals of stored triggers.
+     */
+    public void startPublishing() {
+        publishing = true;
+    }
+
+    /**
+     * Publish next fire time of a stored trigger, when publishing.
+     * Failures are only logged, other nodes then find the trigger after their idle wait.
+     *
+     * @param nextFireTime next fire time of the trigger, may be null
+     */
+    public void publish(Date nextFireTime) {
+        if (!publishing || nextFireTime == null) {
+            return;
+        }
+        try {
+            signalsCollection.insertOne(new Document(Constants.TRIGGER_NEXT_FIRE_TIME, nextFireTime)
+                    .append(Constants.LOCK_INSTANCE_ID, instanceId));
+        } catch (MongoException e) {
+            log.warn("Failed to publish scheduling change: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return id of the last signal or null when there is none
+     */
+    public ObjectId findLastId() {
+        Document last = signalsCollection.find().sort(Sorts.descending("$natural")).limit(1).first();
+        return last == null ? null : last.getObjectId("_id");
+    }
+
+    /**
+     * @return true when the signal is still in the collection
+     */
+    public boolean exists(ObjectId id) {
+        return signalsCollection.find(Filters.eq("_id", id)).limit(1).first() != null;
+    }
+
+    /**
+     * Open a tailable cursor over all signals in insertion order,
+     * waiting for new ones at most given time per batch.
+     */
+    public MongoCursor<Document> tail(long maxAwaitMillis) {
+        return signalsCollection.find()
+                .cursorType(CursorType.TailableAwait)
+                .maxAwaitTime(maxAwaitMillis, TimeUnit.MILLISECONDS)
+                .cursor();
+    }
+}
@@ -1,13 +1,28 @@
 package com.netgrif.quartz.mongodb.dao;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
 import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.TriggerLeases;
+import com.netgrif.quartz.mongodb.UpcomingTriggerIndex;
+import com.netgrif.quartz.mongodb.cluster.BucketPartitioner;
 import com.netgrif.quartz.mongodb.trigger.TriggerConverter;
 import com.netgrif.quartz.mongodb.util.Keys;
 import com.netgrif.quartz.mongodb.util.QueryHelper;
@@ -24,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.mongodb.client.model.Sorts.ascending;
 import static com.netgrif.quartz.mongodb.util.Keys.KEY_GROUP;
@@ -36,25 +52,97 @@ public class TriggerDao {
     private MongoCollection<Document> triggerCollection;
     private QueryHelper queryHelper;
     private TriggerConverter triggerConverter;
+    private final UpcomingTriggerIndex upcomingTriggers;
+    private TriggerLeases triggerLeases;
+    private String instanceId;
+    private final AtomicLong changes = new AtomicLong();
+
+    private static final int BUCKET_BATCH_SIZE = 1000;
+
+    private static final Bson CANDIDATE_FIELDS = Projections.include(
+            Keys.KEY_GROUP, Keys.KEY_NAME, Constants.TRIGGER_JOB_ID, Constants.TRIGGER_NEXT_FIRE_TIME,
+            Constants.TRIGGER_PRIORITY, Constants.TRIGGER_MISFIRE_INSTRUCTION);
 
     public TriggerDao(MongoCollection<Document> triggerCollection, QueryHelper queryHelper,
                       TriggerConverter triggerConverter) {
+        this(triggerCollection, queryHelper, triggerConverter, null);
+    }
+
+    /**
+     * @param upcomingTriggers index invalidated by every change of triggers, may be null
+     */
+    public TriggerDao(MongoCollection<Document> triggerCollection, QueryHelper queryHelper,
+                      TriggerConverter triggerConverter, UpcomingTriggerIndex upcomingTriggers) {
         this.triggerCollection = triggerCollection;
         this.queryHelper = queryHelper;
         this.triggerConverter = triggerConverter;
+        this.upcomingTriggers = upcomingTriggers;
+    }
+
+    /**
+     * @param triggerLeases leases evicted when their triggers are written and
+     *                      refilled after every change of triggers, may be null
+     */
+    public void setTriggerLeases(TriggerLeases triggerLeases) {
+        this.triggerLeases = triggerLeases;
+    }
+
+    /**
+     * @param instanceId instance stamped on written next fire times, so its own
+     *                   changes can be told apart when watching the collection
+     *                   and leased triggers changed since they were loaded too
+     */
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * @param changedBy value of {@value Constants#TRIGGER_CHANGED_BY} field, may be null
+     * @return true when the change was written by given instance
+     */
+    public static boolean isChangedBy(String changedBy, String instanceId) {
+        return changedBy != null && changedBy.startsWith(instanceId + '#')
+                && changedBy.indexOf('#', instanceId.length() + 1) < 0;
     }
 
     public void createIndex() {
-        triggerCollection.createIndex(Keys.KEY_AND_GROUP_FIELDS,
-                new IndexOptions().unique(true));
+        triggerCollection.createIndexes(IndexCatalog.TRIGGER_INDEXES);
     }
 
     public void dropIndex() {
         triggerCollection.dropIndex("keyName_1_keyGroup_1");
     }
 
+    /**
+     * Store buckets of triggers stored before triggers were partitioned, so they
+     * are divided among nodes as the others are.
+     *
+     * @return number of triggers given their bucket
+     */
+    public int assignBuckets() {
+        Bson noBucket = Filters.exists(Constants.TRIGGER_BUCKET, false);
+        List<WriteModel<Document>> writes = new ArrayList<WriteModel<Document>>(BUCKET_BATCH_SIZE);
+        int assigned = 0;
+        for (Document doc : triggerCollection.find(noBucket).projection(Keys.KEY_AND_GROUP_FIELDS)) {
+            writes.add(new UpdateOneModel<Document>(
+                    Filters.and(Filters.eq("_id", doc.get("_id")), noBucket),
+                    Updates.set(Constants.TRIGGER_BUCKET, BucketPartitioner.bucketOf(Keys.toTriggerKey(doc)))));
+            if (writes.size() == BUCKET_BATCH_SIZE) {
+                assigned += triggerCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false))
+                        .getModifiedCount();
+                writes.clear();
+            }
+        }
+        if (!writes.isEmpty()) {
+            assigned += triggerCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false))
+                    .getModifiedCount();
+        }
+        return assigned;
+    }
+
     public void clear() {
         triggerCollection.deleteMany(new Document());
+        changedAll();
     }
 
 
@@ -68,12 +156,185 @@ public class TriggerDao {
 
     public FindIterable<Document> findEligibleToRun(Date noLaterThanDate) {
         Bson query = createNextTriggerQuery(noLaterThanDate);
-        if (log.isInfoEnabled()) {
+        if (log.isDebugEnabled()) {
             log.debug("Found {} triggers which are eligible to be run.", getCount(query));
         }
         return triggerCollection.find(query).sort(ascending(Constants.TRIGGER_NEXT_FIRE_TIME));
     }
 
+    /**
+     * Creates filter of triggers which are due and may be acquired: waiting ones
+     * and those whose claim is matched by given filter of expired claims.
+     *
+     * @param noLaterThanDate latest next fire time
+     * @param expiredClaims   filter matching claims that may be taken over, null when triggers
+     *                        are not claimed, see {@link #createExpiredClaimsFilter(Date, Collection)}
+     */
+    public Bson createEligibleFilter(Date noLaterThanDate, Bson expiredClaims) {
+        return Filters.and(
+                createNextFireTimeFilter(noLaterThanDate),
+                createClaimableFilter(expiredClaims));
+    }
+
+    /**
+     * Creates filter of eligible triggers this scheduler may acquire.
+     *
+     * @param ownTriggers filter of triggers in buckets of this scheduler, null when not partitioned,
+     *                    see {@link com.netgrif.quartz.mongodb.cluster.BucketPartitioner}
+     */
+    public Bson createEligibleFilter(Date noLaterThanDate, Bson expiredClaims, Bson ownTriggers) {
+        Bson eligible = createEligibleFilter(noLaterThanDate, expiredClaims);
+        return ownTriggers == null ? eligible : Filters.and(eligible, ownTriggers);
+    }
+
+    /**
+     * @param noLaterThanDate latest next fire time of acquired triggers
+     * @return false when the upcoming trigger index knows no trigger is due
+     */
+    public boolean mayHaveDueTriggers(Date noLaterThanDate) {
+        return upcomingTriggers == null || upcomingTriggers.mayHaveDueTriggers(noLaterThanDate);
+    }
+
+    /**
+     * Finds lightweight candidates for acquisition in order of their next fire time.
+     * Only the fields needed to pick and acquire a trigger are read.
+     *
+     * @param filter filter of eligible triggers, see {@link #createEligibleFilter(Date, Bson)}
+     * @param limit  maximum number of candidates
+     */
+    public FindIterable<Document> findCandidates(Bson filter, int limit) {
+        return triggerCollection.find(filter)
+                .projection(CANDIDATE_FIELDS)
+                .sort(ascending(Constants.TRIGGER_NEXT_FIRE_TIME))
+                .limit(limit)
+                .batchSize(limit);
+    }
+
+    /**
+     * Finds lightweight candidates like {@link #findCandidates(Bson, int)},
+     * leaving out triggers dropped by given aggregation stages.
+     *
+     * @param filter    filter of eligible triggers
+     * @param limit     maximum number of candidates
+     * @param exclusion stages dropping triggers which can't be acquired, may be empty
+     */
+    public MongoIterable<Document> findCandidates(Bson filter, int limit, List<Bson> exclusion) {
+        if (exclusion.isEmpty()) {
+            return findCandidates(filter, limit);
+        }
+        List<Bson> pipeline = new ArrayList<Bson>();
+        pipeline.add(Aggregates.match(filter));
+        pipeline.add(Aggregates.sort(ascending(Constants.TRIGGER_NEXT_FIRE_TIME)));
+        pipeline.addAll(exclusion);
+        pipeline.add(Aggregates.limit(limit));
+        pipeline.add(Aggregates.project(CANDIDATE_FIELDS));
+        return triggerCollection.aggregate(pipeline).batchSize(limit);
+    }
+
+    /**
+     * Creates filter which continues reading triggers in order of next fire time
+     * after the last read one.
+     *
+     * @param lastNextFireTime next fire time of the last read trigger
+     * @param seenIds          ids of read triggers with that next fire time
+     */
+    public static Bson createResumeFilter(Date lastNextFireTime, List<Object> seenIds) {
+        Bson notSeen = Filters.nin("_id", seenIds);
+        if (lastNextFireTime == null) {
+            // Triggers without next fire time come first, so all read triggers are among seen ones
+            return notSeen;
+        }
+        return Filters.and(Filters.gte(Constants.TRIGGER_NEXT_FIRE_TIME, lastNextFireTime), notSeen);
+    }
+
+    /**
+     * Atomically claims given trigger for the owner.
+     *
+     * <p>The claim succeeds when the trigger is waiting or when its current
+     * claim is matched by {@code expiredClaims}.</p>
+     *
+     * @param key           trigger to claim
+     * @param owner         instance id of the claiming scheduler
+     * @param leaseTime     time of the claim
+     * @param expiredClaims filter matching claims that may be taken over, null to claim waiting triggers only
+     * @return trigger document as it was before the claim or null when it couldn't be claimed
+     */
+    public Document claim(TriggerKey key, String owner, Date leaseTime, Bson expiredClaims) {
+        Bson filter = Filters.and(toFilter(key), createClaimableFilter(expiredClaims));
+        return triggerCollection.findOneAndUpdate(filter,
+                createClaimUpdateDocument(owner, leaseTime),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.BEFORE));
+    }
+
+    /**
+     * Refreshes lease time of a trigger claimed by the owner.
+     *
+     * @return true when the trigger is still claimed by the owner
+     */
+    public boolean renewClaim(TriggerKey key, String owner, Date leaseTime) {
+        UpdateResult result = triggerCollection.updateOne(
+                Filters.and(toFilter(key), createClaimedByFilter(owner)),
+                Updates.set(Constants.TRIGGER_LEASE_TIME, leaseTime));
+        return result.getMatchedCount() == 1;
+    }
+
+    /**
+     * Moves trigger back to waiting if it's still claimed by the owner.
+     */
+    public void releaseClaim(TriggerKey key, String owner) {
+        triggerCollection.updateOne(
+                Filters.and(toFilter(key), createClaimedByFilter(owner)),
+                createReleaseUpdateDocument());
+        changed();
+    }
+
+    /**
+     * Moves all triggers claimed by the owner back to waiting.
+     */
+    public void releaseClaims(String owner) {
+        triggerCollection.updateMany(createClaimedByFilter(owner), createReleaseUpdateDocument());
+        changed();
+    }
+
+    /**
+     * Moves those of given triggers which are still claimed by the owner back to waiting.
+     */
+    public void releaseClaims(Collection<TriggerKey> keys, String owner) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<Bson> filters = new ArrayList<Bson>(keys.size());
+        for (TriggerKey key : keys) {
+            filters.add(toFilter(key));
+        }
+        triggerCollection.updateMany(Filters.and(Filters.or(filters), createClaimedByFilter(owner)),
+                createReleaseUpdateDocument());
+        changed();
+    }
+
+    public List<TriggerKey> findClaimedBy(String owner) {
+        List<TriggerKey> keys = new LinkedList<TriggerKey>();
+        for (Document doc : triggerCollection.find(createClaimedByFilter(owner)).projection(Keys.KEY_AND_GROUP_FIELDS)) {
+            keys.add(Keys.toTriggerKey(doc));
+        }
+        return keys;
+    }
+
+    /**
+     * Creates filter matching claims which other schedulers may take over:
+     * those older than given time and those of defunct schedulers.
+     *
+     * @param leaseExpiredBefore claims with older lease time are expired
+     * @param defunctOwners      instance ids of defunct schedulers
+     */
+    public static Bson createExpiredClaimsFilter(Date leaseExpiredBefore, Collection<String> defunctOwners) {
+        Bson expired = Filters.lt(Constants.TRIGGER_LEASE_TIME, leaseExpiredBefore);
+        if (!defunctOwners.isEmpty()) {
+            expired = Filters.or(expired, Filters.in(Constants.TRIGGER_OWNER, defunctOwners));
+        }
+        return Filters.and(Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED), expired);
+    }
+
     public Document findTrigger(Bson filter) {
         return triggerCollection.find(filter).first();
     }
@@ -128,33 +389,86 @@ public class TriggerDao {
 
     public void insert(Document trigger, Trigger offendingTrigger)
             throws ObjectAlreadyExistsException {
+        stamp(trigger);
         try {
             triggerCollection.insertOne(trigger);
         } catch (MongoWriteException key) {
             throw new ObjectAlreadyExistsException(offendingTrigger);
         }
+        changed();
     }
 
     public void remove(Bson filter) {
+        Collection<TriggerKey> leased = findLeased(filter);
         triggerCollection.deleteMany(filter);
+        changed(leased);
     }
 
     public void remove(TriggerKey triggerKey) {
-        remove(toFilter(triggerKey));
+        triggerCollection.deleteMany(toFilter(triggerKey));
+        changed(triggerKey);
     }
 
     public void removeByJobId(Object id) {
-        triggerCollection.deleteMany(Filters.eq(Constants.TRIGGER_JOB_ID, id));
+        remove(Filters.eq(Constants.TRIGGER_JOB_ID, id));
     }
 
     public void replace(TriggerKey triggerKey, Document trigger) {
+        stamp(trigger);
         triggerCollection.replaceOne(toFilter(triggerKey), trigger, new ReplaceOptions().upsert(true));
+        changed(triggerKey);
+    }
+
+    /**
+     * Apply given writes in one unordered bulk write.
+     *
+     * @param writes writes of triggers
+     * @return errors of writes that failed, indexed by position of the write
+     */
+    public List<BulkWriteError> bulkWrite(List<WriteModel<Document>> writes) {
+        if (writes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            triggerCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            return Collections.emptyList();
+        } catch (MongoBulkWriteException e) {
+            return e.getWriteErrors();
+        } finally {
+            changed();
+        }
+    }
+
+    /**
+     * @return update as written, stamped when it changes the next fire time
+     */
+    public Document update(TriggerKey triggerKey, Document update) {
+        Document stamped = stampUpdate(update);
+        triggerCollection.updateOne(toFilter(triggerKey), stamped);
+        changed();
+        return stamped;
+    }
+
+    /**
+     * @return write updating given trigger, as {@link #update(TriggerKey, Document)} does
+     */
+    public WriteModel<Document> createUpdateModel(TriggerKey triggerKey, Document update) {
+        return new UpdateOneModel<Document>(toFilter(triggerKey), stampUpdate(update));
+    }
+
+    /**
+     * @return write replacing given trigger, as {@link #replace(TriggerKey, Document)} does
+     */
+    public WriteModel<Document> createReplaceModel(TriggerKey triggerKey, Document trigger) {
+        stamp(trigger);
+        return new ReplaceOneModel<Document>(toFilter(triggerKey), trigger, new ReplaceOptions().upsert(true));
     }
 
     public void setState(TriggerKey triggerKey, String state) {
         triggerCollection.updateOne(
-                Keys.toFilter(triggerKey),
+                createStateFilter(Keys.toFilter(triggerKey), state),
                 createTriggerStateUpdateDocument(state));
+        changed(triggerKey);
     }
 
     public void transferState(TriggerKey triggerKey, String oldState, String newState) {
@@ -163,6 +477,7 @@ public class TriggerDao {
                         Keys.toFilter(triggerKey),
                         Filters.eq(Constants.TRIGGER_STATE, oldState)),
                 createTriggerStateUpdateDocument(newState));
+        changed(triggerKey);
     }
 
 
@@ -184,18 +499,60 @@ public class TriggerDao {
 
     private Bson createNextTriggerQuery(Date noLaterThanDate) {
         return Filters.and(
-                Filters.or(
-                        Filters.eq(Constants.TRIGGER_NEXT_FIRE_TIME, null),
-                        Filters.lte(Constants.TRIGGER_NEXT_FIRE_TIME, noLaterThanDate)
-                ),
+                createNextFireTimeFilter(noLaterThanDate),
                 Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_WAITING));
     }
 
+    private Bson createNextFireTimeFilter(Date noLaterThanDate) {
+        return Filters.or(
+                Filters.eq(Constants.TRIGGER_NEXT_FIRE_TIME, null),
+                Filters.lte(Constants.TRIGGER_NEXT_FIRE_TIME, noLaterThanDate));
+    }
+
+    private Bson createClaimableFilter(Bson expiredClaims) {
+        Bson waiting = Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_WAITING);
+        if (expiredClaims == null) {
+            return waiting;
+        }
+        return Filters.or(waiting, expiredClaims);
+    }
+
+    private Bson createClaimedByFilter(String owner) {
+        return Filters.and(
+                Filters.eq(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED),
+                Filters.eq(Constants.TRIGGER_OWNER, owner));
+    }
+
+    private Bson createClaimUpdateDocument(String owner, Date leaseTime) {
+        return Updates.combine(
+                Updates.set(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED),
+                Updates.set(Constants.TRIGGER_OWNER, owner),
+                Updates.set(Constants.TRIGGER_LEASE_TIME, leaseTime));
+    }
+
+    private Bson createReleaseUpdateDocument() {
+        return Updates.combine(
+                Updates.set(Constants.TRIGGER_STATE, Constants.STATE_WAITING),
+                Updates.unset(Constants.TRIGGER_OWNER),
+                Updates.unset(Constants.TRIGGER_LEASE_TIME));
+    }
+
+    /**
+     * Triggers claimed by a node are left waiting by the node once fired,
+     * setting them waiting meanwhile would leave its claim behind.
+     */
+    private Bson createStateFilter(Bson filter, String state) {
+        if (!Constants.STATE_WAITING.equals(state)) {
+            return filter;
+        }
+        return Filters.and(filter, Filters.ne(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED));
+    }
+
     private Bson createTriggerStateUpdateDocument(String state) {
         return new Document("$set", new Document(Constants.TRIGGER_STATE, state));
     }
 
-    private FindIterable<Document> findByJobId(Object jobId) {
+    FindIterable<Document> findByJobId(Object jobId) {
         return triggerCollection.find(Filters.eq(Constants.TRIGGER_JOB_ID, jobId));
     }
 
@@ -208,13 +565,105 @@ public class TriggerDao {
     }
 
     private void setStates(Bson filter, String state) {
+        filter = createStateFilter(filter, state);
+        Collection<TriggerKey> leased = findLeased(filter);
         triggerCollection.updateMany(filter, createTriggerStateUpdateDocument(state));
+        changed(leased);
     }
 
     private void setStates(GroupMatcher<TriggerKey> matcher, String state) {
+        Bson filter = createStateFilter(queryHelper.matchingKeysConditionFor(matcher), state);
+        Collection<TriggerKey> leased = findLeased(filter);
         triggerCollection.updateMany(
-                queryHelper.matchingKeysConditionFor(matcher),
+                filter,
                 createTriggerStateUpdateDocument(state),
                 new UpdateOptions().upsert(false));
+        changed(leased);
+    }
+
+    /**
+     * @return keys of leased triggers matching given filter, read before they are written
+     */
+    private Collection<TriggerKey> findLeased(Bson filter) {
+        if (triggerLeases == null) {
+            return Collections.emptyList();
+        }
+        Set<TriggerKey> leased = triggerLeases.getLeasedKeys();
+        if (leased.isEmpty()) {
+            return leased;
+        }
+        List<Bson> leasedFilters = new ArrayList<Bson>(leased.size());
+        for (TriggerKey key : leased) {
+            leasedFilters.add(toFilter(key));
+        }
+        List<TriggerKey> matching = new ArrayList<TriggerKey>();
+        for (Document doc : triggerCollection.find(Filters.and(filter, Filters.or(leasedFilters)))
+                .projection(Keys.KEY_AND_GROUP_FIELDS)) {
+            matching.add(Keys.toTriggerKey(doc));
+        }
+        return matching;
+    }
+
+    /**
+     * Stamp the instance on a written trigger. Every stamp differs, so it is
+     * reported among updated fields of a change even when the instance wrote
+     * the trigger before.
+     */
+    private void stamp(Document trigger) {
+        if (instanceId != null) {
+            trigger.put(Constants.TRIGGER_CHANGED_BY, instanceId + '#' + changes.incrementAndGet());
+        }
+    }
+
+    /**
+     * @return copy of given update stamped as {@link #stamp(Document)} does,
+     * or the update itself when it doesn't change the next fire time
+     */
+    private Document stampUpdate(Document update) {
+        Document set = update.get("$set", Document.class);
+        if (instanceId == null || set == null || !set.containsKey(Constants.TRIGGER_NEXT_FIRE_TIME)) {
+            return update;
+        }
+        Document stamped = new Document(update);
+        Document stampedSet = new Document(set);
+        stamp(stampedSet);
+        stamped.put("$set", stampedSet);
+        return stamped;
+    }
+
+    private void changed() {
+        if (upcomingTriggers != null) {
+            upcomingTriggers.invalidate();
+        }
+        if (triggerLeases != null) {
+            triggerLeases.requestRefill();
+        }
+    }
+
+    /**
+     * Trigger has been written outside of firing, its lease may be stale.
+     */
+    private void changed(TriggerKey triggerKey) {
+        changed(Collections.singleton(triggerKey));
+    }
+
+    /**
+     * Triggers have been written outside of firing, their leases may be stale.
+     */
+    private void changed(Collection<TriggerKey> triggerKeys) {
+        if (triggerLeases != null && !triggerKeys.isEmpty()) {
+            triggerLeases.evict(triggerKeys);
+        }
+        changed();
+    }
+
+    /**
+     * All triggers have been written outside of firing, any lease may be stale.
+     */
+    private void changedAll() {
+        if (triggerLeases != null) {
+            triggerLeases.evictAll();
+        }
+        changed();
     }
 }
@@ -0,0 +1,27 @@
+package com.netgrif.quartz.mongodb.db;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+
+final class CappedCollections {
+
+    private static final int NAMESPACE_EXISTS = 48;
+
+    private CappedCollections() {
+    }
+
+    /**
+     * Create capped collection unless it exists already.
+     */
+    static void create(MongoDatabase database, String collectionName, long sizeInBytes) {
+        try {
+            database.createCollection(collectionName,
+                    new CreateCollectionOptions().capped(true).sizeInBytes(sizeInBytes));
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != NAMESPACE_EXISTS) {
+                throw e;
+            }
+        }
+    }
+}
@@ -52,6 +52,11 @@ public class ExternalMongoConnector implements MongoConnector {
         return database.getCollection(collectionName).withWriteConcern(writeConcern);
     }
 
+    @Override
+    public void createCappedCollection(String collectionName, long sizeInBytes) {
+        CappedCollections.create(database, collectionName, sizeInBytes);
+    }
+
     @Override
     public void close() {
         // we don't own the lifecycle of MongoClient, ignore.
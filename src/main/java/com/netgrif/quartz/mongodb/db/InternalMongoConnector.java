@@ -87,6 +87,11 @@ public class InternalMongoConnector implements MongoConnector {
         return database.getCollection(collectionName).withWriteConcern(writeConcern);
     }
 
+    @Override
+    public void createCappedCollection(String collectionName, long sizeInBytes) {
+        CappedCollections.create(database, collectionName, sizeInBytes);
+    }
+
     @Override
     public void close() {
         mongoClient.close();
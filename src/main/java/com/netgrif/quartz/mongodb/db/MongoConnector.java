@@ -21,6 +21,18 @@ public interface MongoConnector extends Closeable {
      */
     MongoCollection<Document> getCollection(final String collectionName);
 
+    /**
+     * Quartz-mongodb will call this method to create a capped collection, which is left as it is
+     * when it already exists. Connectors not able to create collections don't need to implement it.
+     *
+     * @param collectionName collection name.
+     * @param sizeInBytes    maximum size of the collection.
+     * @throws UnsupportedOperationException when the connector doesn't create collections.
+     */
+    default void createCappedCollection(final String collectionName, final long sizeInBytes) {
+        throw new UnsupportedOperationException("Capped collections are not supported by " + getClass().getName());
+    }
+
     /**
      * Quartz-mongodb will call this method when shutting down.
      * Implementation can close {@link MongoClient} here.
@@ -2,10 +2,11 @@ package com.netgrif.quartz.mongodb.trigger;
 
 import com.netgrif.quartz.mongodb.Constants;
 import com.netgrif.quartz.mongodb.JobDataConverter;
+import com.netgrif.quartz.mongodb.cluster.BucketPartitioner;
 import com.netgrif.quartz.mongodb.dao.JobDao;
 import org.bson.Document;
 import org.bson.types.ObjectId;
-import org.quartz.Job;
+import org.quartz.JobDataMap;
 import org.quartz.JobKey;
 import org.quartz.JobPersistenceException;
 import org.quartz.TriggerKey;
@@ -18,25 +19,31 @@ import static com.netgrif.quartz.mongodb.util.Keys.KEY_NAME;
 
 public class TriggerConverter {
 
-    private static final String TRIGGER_CALENDAR_NAME = "calendarName";
+    private static final String TRIGGER_CALENDAR_NAME = Constants.TRIGGER_CALENDAR_NAME;
     private static final String TRIGGER_CLASS = "class";
     private static final String TRIGGER_DESCRIPTION = "description";
     private static final String TRIGGER_END_TIME = "endTime";
     private static final String TRIGGER_FINAL_FIRE_TIME = "finalFireTime";
     private static final String TRIGGER_FIRE_INSTANCE_ID = "fireInstanceId";
-    private static final String TRIGGER_MISFIRE_INSTRUCTION = "misfireInstruction";
+    private static final String TRIGGER_MISFIRE_INSTRUCTION = Constants.TRIGGER_MISFIRE_INSTRUCTION;
     private static final String TRIGGER_PREVIOUS_FIRE_TIME = "previousFireTime";
-    private static final String TRIGGER_PRIORITY = "priority";
+    private static final String TRIGGER_PRIORITY = Constants.TRIGGER_PRIORITY;
     private static final String TRIGGER_START_TIME = "startTime";
 
     private static final Logger log = LoggerFactory.getLogger(TriggerConverter.class);
 
     private JobDao jobDao;
     private final JobDataConverter jobDataConverter;
+    private final TriggerTypeRegistry triggerTypes;
 
     public TriggerConverter(JobDao jobDao, JobDataConverter jobDataConverter) {
+        this(jobDao, jobDataConverter, new TriggerTypeRegistry());
+    }
+
+    public TriggerConverter(JobDao jobDao, JobDataConverter jobDataConverter, TriggerTypeRegistry triggerTypes) {
         this.jobDao = jobDao;
         this.jobDataConverter = jobDataConverter;
+        this.triggerTypes = triggerTypes;
     }
 
     /**
@@ -46,10 +53,22 @@ public class TriggerConverter {
      */
     public Document toDocument(OperableTrigger newTrigger, ObjectId jobId)
             throws JobPersistenceException {
+        return toDocument(newTrigger, jobId, true);
+    }
+
+    /**
+     * Converts trigger into document, optionally leaving out its job data map.
+     *
+     * @param withJobData false to skip serializing the job data map
+     */
+    public Document toDocument(OperableTrigger newTrigger, ObjectId jobId, boolean withJobData)
+            throws JobPersistenceException {
         Document trigger = convertToBson(newTrigger, jobId);
-        jobDataConverter.toDocument(newTrigger.getJobDataMap(), trigger);
+        if (withJobData) {
+            jobDataConverter.toDocument(newTrigger.getJobDataMap(), trigger);
+        }
 
-        TriggerPropertiesConverter tpd = TriggerPropertiesConverter.getConverterFor(newTrigger);
+        TriggerPropertiesConverter tpd = triggerTypes.forClass(newTrigger.getClass()).getPropertiesConverter();
         trigger = tpd.injectExtraPropertiesForInsert(newTrigger, trigger);
         return trigger;
     }
@@ -82,21 +101,47 @@ public class TriggerConverter {
      * or could not deserialize job data map.
      */
     public OperableTrigger toTriggerWithOptionalJob(TriggerKey triggerKey, Document triggerDoc) throws JobPersistenceException {
-        OperableTrigger trigger = createNewInstance(triggerDoc);
+        Object jobId = triggerDoc.get(Constants.TRIGGER_JOB_ID);
+        return toTriggerWithJobDocument(triggerKey, triggerDoc, jobDao.getById(jobId));
+    }
+
+    /**
+     * Restore trigger from Mongo Document whose job has been already read.
+     *
+     * @param triggerDoc mongo {@link Document} to read from.
+     * @param jobDoc     job document of the trigger or null when it has no job.
+     * @return trigger from Document even if no associated job exists
+     * @throws JobPersistenceException if could not construct trigger instance
+     * or could not deserialize job data map.
+     */
+    public OperableTrigger toTriggerWithJobDocument(Document triggerDoc, Document jobDoc)
+            throws JobPersistenceException {
+        TriggerKey key = new TriggerKey(triggerDoc.getString(KEY_NAME), triggerDoc.getString(KEY_GROUP));
+        return toTriggerWithJobDocument(key, triggerDoc, jobDoc);
+    }
+
+    private OperableTrigger toTriggerWithJobDocument(TriggerKey triggerKey, Document triggerDoc, Document job)
+            throws JobPersistenceException {
+        TriggerTypeRegistry.TriggerType type = triggerTypes.forName(triggerDoc.getString(TRIGGER_CLASS));
+        OperableTrigger trigger = type.newInstance();
 
-        TriggerPropertiesConverter tpd = TriggerPropertiesConverter.getConverterFor(trigger);
+        TriggerPropertiesConverter tpd = type.getPropertiesConverter();
 
         loadCommonProperties(triggerKey, triggerDoc, trigger);
 
-        jobDataConverter.toJobData(triggerDoc, trigger.getJobDataMap());
+        JobDataMap jobData = jobDataConverter.toLazyJobData(triggerDoc);
+        if (jobData != null) {
+            trigger.setJobDataMap(jobData);
+        } else {
+            jobDataConverter.toJobData(triggerDoc, trigger.getJobDataMap());
+        }
+        // Track changes made after loading, so unchanged job data needn't be stored again
+        trigger.getJobDataMap().clearDirtyFlag();
 
         loadStartAndEndTimes(triggerDoc, trigger);
 
         tpd.setExtraPropertiesAfterInstantiation(trigger, triggerDoc);
 
-        Object jobId = triggerDoc.get(Constants.TRIGGER_JOB_ID);
-        Document job = jobDao.getById(jobId);
-
         if (job != null) {
             trigger.setJobKey(new JobKey(job.getString(KEY_NAME), job.getString(KEY_GROUP)));
         }
@@ -125,6 +170,7 @@ public class TriggerConverter {
         trigger.put(Constants.TRIGGER_JOB_ID, jobId);
         trigger.put(KEY_NAME, newTrigger.getKey().getName());
         trigger.put(KEY_GROUP, newTrigger.getKey().getGroup());
+        trigger.put(Constants.TRIGGER_BUCKET, BucketPartitioner.bucketOf(newTrigger.getKey()));
         trigger.put(TRIGGER_MISFIRE_INSTRUCTION, newTrigger.getMisfireInstruction());
         trigger.put(Constants.TRIGGER_NEXT_FIRE_TIME, newTrigger.getNextFireTime());
         trigger.put(TRIGGER_PREVIOUS_FIRE_TIME, newTrigger.getPreviousFireTime());
@@ -133,24 +179,6 @@ public class TriggerConverter {
         return trigger;
     }
 
-    private OperableTrigger createNewInstance(Document triggerDoc) throws JobPersistenceException {
-        String triggerClassName = triggerDoc.getString(TRIGGER_CLASS);
-        try {
-            @SuppressWarnings("unchecked")
-            Class<OperableTrigger> triggerClass = (Class<OperableTrigger>) getTriggerClassLoader()
-                    .loadClass(triggerClassName);
-            return triggerClass.newInstance();
-        } catch (ClassNotFoundException e) {
-            throw new JobPersistenceException("Could not find trigger class " + triggerClassName);
-        } catch (Exception e) {
-            throw new JobPersistenceException("Could not instantiate trigger class " + triggerClassName);
-        }
-    }
-
-    private ClassLoader getTriggerClassLoader() {
-        return Job.class.getClassLoader();
-    }
-
     private void loadCommonProperties(TriggerKey triggerKey, Document triggerDoc, OperableTrigger trigger) {
         trigger.setKey(triggerKey);
         trigger.setCalendarName(triggerDoc.getString(TRIGGER_CALENDAR_NAME));
@@ -0,0 +1,90 @@
+package com.netgrif.quartz.mongodb.trigger;
+
+import com.netgrif.quartz.mongodb.Constants;
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Computes update of a trigger document which changes only
+ * fields that differ from the document the trigger was loaded from.
+ */
+public final class TriggerDelta {
+
+    /**
+     * Fields which are never compared. State and ownership are maintained
+     * by acquisition and the origin of changes by the dao, not by converting the trigger.
+     */
+    private static final Set<String> IGNORED_FIELDS = new HashSet<String>(Arrays.asList(
+            "_id", Constants.TRIGGER_STATE, Constants.TRIGGER_OWNER, Constants.TRIGGER_LEASE_TIME,
+            Constants.TRIGGER_CHANGED_BY));
+
+    private static final Set<String> JOB_DATA_FIELDS = new HashSet<String>(Arrays.asList(
+            Constants.JOB_DATA, Constants.JOB_DATA_PLAIN));
+
+    private TriggerDelta() {
+    }
+
+    /**
+     * Create update turning the loaded document into the current one.
+     *
+     * @param loaded         document the trigger was loaded from
+     * @param current        document converted from the trigger now
+     * @param compareJobData false when the job data map hasn't changed and
+     *                       {@code current} doesn't contain it
+     * @return update document, empty when nothing changed
+     */
+    public static Document diff(Document loaded, Document current, boolean compareJobData) {
+        Document set = new Document();
+        for (Map.Entry<String, Object> field : current.entrySet()) {
+            if (isCompared(field.getKey(), compareJobData)
+                    && !(loaded.containsKey(field.getKey())
+                    && Objects.equals(loaded.get(field.getKey()), field.getValue()))) {
+                set.append(field.getKey(), field.getValue());
+            }
+        }
+
+        Document unset = new Document();
+        for (String name : loaded.keySet()) {
+            if (isCompared(name, compareJobData) && !current.containsKey(name)) {
+                unset.append(name, "");
+            }
+        }
+
+        Document update = new Document();
+        if (!set.isEmpty()) {
+            update.append("$set", set);
+        }
+        if (!unset.isEmpty()) {
+            update.append("$unset", unset);
+        }
+        return update;
+    }
+
+    /**
+     * Apply update created by {@link #diff(Document, Document, boolean)} to the loaded document,
+     * giving the document as it is stored after the update.
+     */
+    public static Document apply(Document loaded, Document update) {
+        Document result = new Document(loaded);
+        Document set = update.get("$set", Document.class);
+        if (set != null) {
+            result.putAll(set);
+        }
+        Document unset = update.get("$unset", Document.class);
+        if (unset != null) {
+            for (String name : unset.keySet()) {
+                result.remove(name);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isCompared(String name, boolean compareJobData) {
+        return !IGNORED_FIELDS.contains(name) && (compareJobData || !JOB_DATA_FIELDS.contains(name));
+    }
+}
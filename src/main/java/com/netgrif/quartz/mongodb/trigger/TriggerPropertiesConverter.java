@@ -37,6 +37,12 @@ public abstract class TriggerPropertiesConverter {
 
     protected abstract boolean canHandle(OperableTrigger trigger);
 
+    /**
+     * Add type specific properties of the trigger to its document.
+     *
+     * @param original document to append the properties to
+     * @return document with the properties, {@code original} itself or a new one
+     */
     public abstract Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original);
 
     public abstract void setExtraPropertiesAfterInstantiation(OperableTrigger trigger, Document stored);
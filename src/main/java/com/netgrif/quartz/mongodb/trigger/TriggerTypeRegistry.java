@@ -0,0 +1,144 @@
+package com.netgrif.quartz.mongodb.trigger;
+
+import com.netgrif.quartz.mongodb.trigger.properties.CalendarIntervalTriggerPropertiesConverter;
+import com.netgrif.quartz.mongodb.trigger.properties.CronTriggerPropertiesConverter;
+import com.netgrif.quartz.mongodb.trigger.properties.DailyTimeIntervalTriggerPropertiesConverter;
+import com.netgrif.quartz.mongodb.trigger.properties.SimpleTriggerPropertiesConverter;
+import org.quartz.Job;
+import org.quartz.JobPersistenceException;
+import org.quartz.impl.triggers.CalendarIntervalTriggerImpl;
+import org.quartz.impl.triggers.CronTriggerImpl;
+import org.quartz.impl.triggers.DailyTimeIntervalTriggerImpl;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+import org.quartz.spi.OperableTrigger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Trigger types by the class name stored in trigger documents, each with
+ * a factory of new triggers and the converter of its properties.
+ *
+ * <p>Quartz trigger types are registered up front and created without
+ * reflection. Applications can register their own trigger types. Other
+ * trigger classes are resolved the first time they are read, through their
+ * public no-arg constructor and the first converter able to handle them.</p>
+ */
+public class TriggerTypeRegistry {
+
+    private final ConcurrentMap<String, TriggerType> types = new ConcurrentHashMap<String, TriggerType>();
+
+    public TriggerTypeRegistry() {
+        register(SimpleTriggerImpl.class, SimpleTriggerImpl::new, new SimpleTriggerPropertiesConverter());
+        register(CalendarIntervalTriggerImpl.class, CalendarIntervalTriggerImpl::new,
+                new CalendarIntervalTriggerPropertiesConverter());
+        register(CronTriggerImpl.class, CronTriggerImpl::new, new CronTriggerPropertiesConverter());
+        register(DailyTimeIntervalTriggerImpl.class, DailyTimeIntervalTriggerImpl::new,
+                new DailyTimeIntervalTriggerPropertiesConverter());
+    }
+
+    /**
+     * Register trigger type, replacing one registered for the same class.
+     *
+     * @param triggerClass class of the triggers
+     * @param factory      creates new empty triggers of the class
+     * @param converter    converts properties specific to the class
+     */
+    public <T extends OperableTrigger> void register(Class<T> triggerClass, Supplier<T> factory,
+                                                     TriggerPropertiesConverter converter) {
+        types.put(triggerClass.getName(), new TriggerType(triggerClass, factory, converter));
+    }
+
+    /**
+     * @param className class name stored in trigger document
+     * @return type of the trigger class
+     * @throws JobPersistenceException when the class can't be loaded or instantiated
+     */
+    public TriggerType forName(String className) throws JobPersistenceException {
+        TriggerType type = types.get(className);
+        if (type == null) {
+            try {
+                @SuppressWarnings("unchecked")
+                Class<? extends OperableTrigger> triggerClass = (Class<? extends OperableTrigger>)
+                        getTriggerClassLoader().loadClass(className);
+                type = forClass(triggerClass);
+            } catch (ClassNotFoundException e) {
+                throw new JobPersistenceException("Could not find trigger class " + className);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * @param triggerClass class of a trigger being stored
+     * @return type of the trigger class
+     * @throws JobPersistenceException when the class is not registered and can't be instantiated
+     */
+    public TriggerType forClass(Class<? extends OperableTrigger> triggerClass) throws JobPersistenceException {
+        TriggerType type = types.get(triggerClass.getName());
+        if (type == null || type.triggerClass != triggerClass) {
+            type = resolve(triggerClass);
+            types.put(triggerClass.getName(), type);
+        }
+        return type;
+    }
+
+    private TriggerType resolve(Class<? extends OperableTrigger> triggerClass) throws JobPersistenceException {
+        final MethodHandle constructor;
+        try {
+            constructor = MethodHandles.publicLookup().findConstructor(triggerClass, MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new JobPersistenceException("Could not instantiate trigger class " + triggerClass.getName(), e);
+        }
+        Supplier<OperableTrigger> factory = () -> {
+            try {
+                return (OperableTrigger) constructor.invoke();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Could not instantiate trigger class " + triggerClass.getName(), e);
+            }
+        };
+        return new TriggerType(triggerClass, factory,
+                TriggerPropertiesConverter.getConverterFor(newInstance(triggerClass, factory)));
+    }
+
+    private static OperableTrigger newInstance(Class<?> triggerClass, Supplier<? extends OperableTrigger> factory)
+            throws JobPersistenceException {
+        try {
+            return factory.get();
+        } catch (RuntimeException e) {
+            throw new JobPersistenceException("Could not instantiate trigger class " + triggerClass.getName(), e);
+        }
+    }
+
+    private ClassLoader getTriggerClassLoader() {
+        return Job.class.getClassLoader();
+    }
+
+    /**
+     * Trigger class with its factory and properties converter.
+     */
+    public static final class TriggerType {
+        private final Class<? extends OperableTrigger> triggerClass;
+        private final Supplier<? extends OperableTrigger> factory;
+        private final TriggerPropertiesConverter propertiesConverter;
+
+        TriggerType(Class<? extends OperableTrigger> triggerClass, Supplier<? extends OperableTrigger> factory,
+                    TriggerPropertiesConverter propertiesConverter) {
+            this.triggerClass = triggerClass;
+            this.factory = factory;
+            this.propertiesConverter = propertiesConverter;
+        }
+
+        public OperableTrigger newInstance() throws JobPersistenceException {
+            return TriggerTypeRegistry.newInstance(triggerClass, factory);
+        }
+
+        public TriggerPropertiesConverter getPropertiesConverter() {
+            return propertiesConverter;
+        }
+    }
+}
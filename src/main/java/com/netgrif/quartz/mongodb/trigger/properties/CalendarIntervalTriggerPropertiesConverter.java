@@ -22,7 +22,7 @@ public class CalendarIntervalTriggerPropertiesConverter extends TriggerPropertie
     public Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original) {
         CalendarIntervalTriggerImpl t = (CalendarIntervalTriggerImpl) trigger;
 
-        return new Document(original)
+        return original
                 .append(TRIGGER_REPEAT_INTERVAL_UNIT, t.getRepeatIntervalUnit().name())
                 .append(TRIGGER_REPEAT_INTERVAL, t.getRepeatInterval())
                 .append(TRIGGER_TIMES_TRIGGERED, t.getTimesTriggered());
@@ -8,7 +8,6 @@ import org.quartz.impl.triggers.CronTriggerImpl;
 import org.quartz.spi.OperableTrigger;
 
 import java.text.ParseException;
-import java.util.TimeZone;
 
 public class CronTriggerPropertiesConverter extends TriggerPropertiesConverter {
 
@@ -25,7 +24,7 @@ public class CronTriggerPropertiesConverter extends TriggerPropertiesConverter {
     public Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original) {
         CronTrigger t = (CronTrigger) trigger;
 
-        return new Document(original)
+        return original
                 .append(TRIGGER_CRON_EXPRESSION, t.getCronExpression())
                 .append(TRIGGER_TIMEZONE, t.getTimeZone().getID());
     }
@@ -45,7 +44,7 @@ public class CronTriggerPropertiesConverter extends TriggerPropertiesConverter {
         }
         String tz = stored.getString(TRIGGER_TIMEZONE);
         if (tz != null) {
-            t.setTimeZone(TimeZone.getTimeZone(tz));
+            t.setTimeZone(ScheduleValues.timeZone(tz));
         }
     }
 }
@@ -31,7 +31,7 @@ public class DailyTimeIntervalTriggerPropertiesConverter extends TriggerProperti
     public Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original) {
         DailyTimeIntervalTriggerImpl t = (DailyTimeIntervalTriggerImpl) trigger;
 
-        return new Document(original)
+        return original
                 .append(TRIGGER_REPEAT_INTERVAL_UNIT, t.getRepeatIntervalUnit().name())
                 .append(TRIGGER_REPEAT_INTERVAL, t.getRepeatInterval())
                 .append(TRIGGER_TIMES_TRIGGERED, t.getTimesTriggered())
@@ -79,6 +79,6 @@ public class DailyTimeIntervalTriggerPropertiesConverter extends TriggerProperti
     }
 
     private TimeOfDay fromDocument(Document tod) {
-        return new TimeOfDay(tod.getInteger("hour"), tod.getInteger("minute"), tod.getInteger("second"));
+        return ScheduleValues.timeOfDay(tod.getInteger("hour"), tod.getInteger("minute"), tod.getInteger("second"));
     }
 }
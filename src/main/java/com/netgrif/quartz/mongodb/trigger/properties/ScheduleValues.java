@@ -0,0 +1,52 @@
+package com.netgrif.quartz.mongodb.trigger.properties;
+
+import org.quartz.TimeOfDay;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parsed schedule values of loaded triggers. Triggers usually share a few
+ * distinct time zones and times of day, so these are resolved once.
+ *
+ * <p>Only immutable values are shared. {@link TimeZone} is changed in place by
+ * {@link org.quartz.impl.triggers.CronTriggerImpl#setTimeZone(TimeZone)},
+ * so every trigger gets its own clone.</p>
+ */
+final class ScheduleValues {
+
+    private static final ConcurrentMap<String, TimeZone> timeZones = new ConcurrentHashMap<String, TimeZone>();
+    private static final ConcurrentMap<Integer, TimeOfDay> timesOfDay = new ConcurrentHashMap<Integer, TimeOfDay>();
+
+    private ScheduleValues() {
+    }
+
+    /**
+     * @return time zone of given id, owned by the caller
+     */
+    static TimeZone timeZone(String id) {
+        TimeZone zone = timeZones.get(id);
+        if (zone == null) {
+            // resolving the id is the expensive part, cloning is cheap
+            zone = TimeZone.getTimeZone(id);
+            TimeZone previous = timeZones.putIfAbsent(id, zone);
+            if (previous != null) {
+                zone = previous;
+            }
+        }
+        return (TimeZone) zone.clone();
+    }
+
+    /**
+     * {@link TimeOfDay} is immutable, the same instance can be used by any trigger.
+     */
+    static TimeOfDay timeOfDay(int hour, int minute, int second) {
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            // let TimeOfDay reject it
+            return new TimeOfDay(hour, minute, second);
+        }
+        return timesOfDay.computeIfAbsent(hour * 3600 + minute * 60 + second,
+                key -> new TimeOfDay(hour, minute, second));
+    }
+}
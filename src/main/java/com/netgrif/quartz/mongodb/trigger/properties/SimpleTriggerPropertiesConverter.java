@@ -22,7 +22,7 @@ public class SimpleTriggerPropertiesConverter extends TriggerPropertiesConverter
     public Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original) {
         SimpleTrigger t = (SimpleTrigger) trigger;
 
-        return new Document(original)
+        return original
                 .append(TRIGGER_REPEAT_COUNT, t.getRepeatCount())
                 .append(TRIGGER_REPEAT_INTERVAL, t.getRepeatInterval())
                 .append(TRIGGER_TIMES_TRIGGERED, t.getTimesTriggered());
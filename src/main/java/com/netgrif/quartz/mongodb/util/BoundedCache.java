@@ -0,0 +1,105 @@
+package com.netgrif.quartz.mongodb.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Thread safe cache holding at most given number of entries,
+ * evicting the least recently used ones. Counts hits and misses.
+ *
+ * <p>A cache of size 0 is disabled, it holds nothing.</p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class BoundedCache<K, V> {
+
+    private final int maxSize;
+    private final Map<K, V> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public BoundedCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Return cached value which is still valid.
+     * An invalid value is removed and counted as a miss.
+     *
+     * @param key   key of the value
+     * @param valid checks whether cached value may be used
+     * @return value or null when not cached or not valid
+     */
+    public V get(K key, Predicate<V> valid) {
+        V value;
+        synchronized (entries) {
+            value = entries.get(key);
+        }
+        if (value != null && valid.test(value)) {
+            hits.incrementAndGet();
+            return value;
+        }
+        if (value != null) {
+            remove(key, value);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public V get(K key) {
+        return get(key, value -> true);
+    }
+
+    public void put(K key, V value) {
+        if (isEnabled()) {
+            synchronized (entries) {
+                entries.put(key, value);
+            }
+        }
+    }
+
+    public void remove(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void remove(K key, V value) {
+        synchronized (entries) {
+            entries.remove(key, value);
+        }
+    }
+}
@@ -1,27 +1,29 @@
 package com.netgrif.quartz.mongodb.util;
 
 import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.cluster.ClusterSnapshot;
 import com.netgrif.quartz.mongodb.cluster.Scheduler;
-import com.netgrif.quartz.mongodb.dao.SchedulerDao;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 public class ExpiryCalculator {
 
     private static final Logger log = LoggerFactory.getLogger(ExpiryCalculator.class);
 
-    private final SchedulerDao schedulerDao;
+    private final ClusterSnapshot clusterSnapshot;
     private final Clock clock;
     private final long jobTimeoutMillis;
     private final long triggerTimeoutMillis;
     private final boolean isClustered;
 
-    public ExpiryCalculator(SchedulerDao schedulerDao, Clock clock,
+    public ExpiryCalculator(ClusterSnapshot clusterSnapshot, Clock clock,
                             long jobTimeoutMillis, long triggerTimeoutMillis, boolean isClustered) {
-        this.schedulerDao = schedulerDao;
+        this.clusterSnapshot = clusterSnapshot;
         this.clock = clock;
         this.jobTimeoutMillis = jobTimeoutMillis;
         this.triggerTimeoutMillis = triggerTimeoutMillis;
@@ -37,14 +39,47 @@ public class ExpiryCalculator {
         return isLockExpired(lock, triggerTimeoutMillis) || hasDefunctScheduler(schedulerId);
     }
 
+    /**
+     * @return claims with older lease time than this are expired
+     */
+    public Date claimExpiredBefore() {
+        return new Date(clock.millis() - triggerTimeoutMillis);
+    }
+
+    /**
+     * @return lease time for claims made now
+     */
+    public Date leaseTime() {
+        return new Date(clock.millis());
+    }
+
+    /**
+     * Return instance ids of other schedulers that stopped checking in.
+     *
+     * @return ids of defunct schedulers, empty when not clustered
+     */
+    public List<String> findDefunctSchedulers() {
+        List<String> defunct = new ArrayList<String>();
+        if (!isClustered) {
+            return defunct;
+        }
+        for (Scheduler scheduler : clusterSnapshot.getDefunctSchedulers()) {
+            if (clusterSnapshot.isNotSelf(scheduler)) {
+                defunct.add(scheduler.getInstanceId());
+            }
+        }
+        return defunct;
+    }
+
     private boolean hasDefunctScheduler(String schedulerId) {
 
-        Scheduler scheduler = schedulerDao.findInstance(schedulerId);
+        Scheduler scheduler = clusterSnapshot.findInstance(schedulerId);
         if (scheduler == null) {
             log.debug("No such scheduler: {}", schedulerId);
             return false;
         }
-        return scheduler.isDefunct(clock.millis()) && schedulerDao.isNotSelf(scheduler);
+        // judged by when the snapshot was read, it doesn't have later check-ins
+        return clusterSnapshot.isNotSelf(scheduler) && clusterSnapshot.isDefunct(schedulerId);
 
     }
 
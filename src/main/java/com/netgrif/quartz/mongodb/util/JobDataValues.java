@@ -0,0 +1,96 @@
+package com.netgrif.quartz.mongodb.util;
+
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Copies of job data values, so a copy of a job data map
+ * can be changed in place without changing the original.
+ */
+public class JobDataValues {
+
+    /**
+     * Copy documents, maps, lists, dates and byte arrays deeply.
+     *
+     * @return the copy, or the value itself when it is of another type
+     */
+    public static Object copy(Object value) {
+        if (value instanceof Document) {
+            Document copy = new Document();
+            for (Map.Entry<String, Object> entry : ((Document) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object item : (List<?>) value) {
+                copy.add(copy(item));
+            }
+            return copy;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * @return true when {@link #copy(Object)} shares no mutable state with the value
+     */
+    public static boolean isCopyable(Object value) {
+        if (value == null || value instanceof Date || value instanceof byte[] || value instanceof Enum) {
+            return true;
+        }
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!isImmutable(entry.getKey()) || !isCopyable(entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (!isCopyable(item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return isImmutable(value);
+    }
+
+    private static boolean isImmutable(Object value) {
+        if (value == null) {
+            return true;
+        }
+        // exact classes, subclasses of BigInteger or BigDecimal may be mutable
+        Class<?> type = value.getClass();
+        return type == String.class || type == Boolean.class || type == Character.class
+                || type == Integer.class || type == Long.class || type == Short.class || type == Byte.class
+                || type == Double.class || type == Float.class
+                || type == BigInteger.class || type == BigDecimal.class
+                || type == ObjectId.class || type == Decimal128.class || type == UUID.class;
+    }
+}
@@ -84,6 +84,15 @@ public class Keys {
         return lock;
     }
 
+    /**
+     * Update which creates the lock when upserted and leaves an existing lock unchanged.
+     */
+    public static Document createLockInsertDocument(String instanceId, Date lockTime) {
+        return new Document("$setOnInsert", new Document()
+                .append(Constants.LOCK_INSTANCE_ID, instanceId)
+                .append(Constants.LOCK_TIME, lockTime));
+    }
+
     public static Document createLockUpdateDocument(String instanceId, Date newLockTime) {
         return new Document("$set", new Document()
                 .append(Constants.LOCK_INSTANCE_ID, instanceId)
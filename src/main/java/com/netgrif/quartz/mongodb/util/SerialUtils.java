@@ -9,6 +9,9 @@ import org.quartz.JobPersistenceException;
 import java.io.*;
 import java.util.Collections;
 import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class SerialUtils {
 
@@ -48,11 +51,62 @@ public class SerialUtils {
     }
 
     public static String serialize(JobDataMap jobDataMap) throws IOException {
+        return Base64.encodeBase64String(serializeToBytes(jobDataMap));
+    }
+
+    public static byte[] serializeToBytes(JobDataMap jobDataMap) throws IOException {
         try {
-            byte[] bytes = stringMapToBytes(jobDataMap.getWrappedMap());
-            return Base64.encodeBase64String(bytes);
+            return stringMapToBytes(jobDataMap.getWrappedMap());
         } catch (NotSerializableException e) {
-            return rethrowEnhanced(jobDataMap, e);
+            throw rethrowEnhanced(jobDataMap, e);
+        }
+    }
+
+    /**
+     * Deserialize job data written by {@link #serializeToBytes(JobDataMap)}.
+     */
+    public static Map<String, ?> deserialize(byte[] bytes) throws IOException {
+        try {
+            return stringMapFromBytes(bytes);
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+
+    public static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] decompress(byte[] bytes) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Compressed job data is truncated");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        } finally {
+            inflater.end();
         }
     }
 
@@ -61,7 +115,7 @@ public class SerialUtils {
             byte[] bytes = Base64.decodeBase64(clob);
             return stringMapFromBytes(bytes);
         } catch (NotSerializableException e) {
-            rethrowEnhanced(jobDataMap, e);
+            throw rethrowEnhanced(jobDataMap, e);
         } catch (ClassNotFoundException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -87,7 +141,12 @@ public class SerialUtils {
         return map;
     }
 
-    private static String rethrowEnhanced(JobDataMap jobDataMap, NotSerializableException e)
+    /**
+     * Always throws, returns only so callers can write {@code throw rethrowEnhanced(...)}.
+     *
+     * @throws NotSerializableException naming the key of the value which isn't serializable
+     */
+    private static NotSerializableException rethrowEnhanced(JobDataMap jobDataMap, NotSerializableException e)
             throws NotSerializableException {
         final String key = getKeyOfNonSerializableStringMapEntry(jobDataMap.getWrappedMap());
         throw new NotSerializableException(
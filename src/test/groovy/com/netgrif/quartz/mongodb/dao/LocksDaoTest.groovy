@@ -1,10 +1,12 @@
 package com.netgrif.quartz.mongodb.dao
 
 import com.mongodb.MongoWriteException
+import com.mongodb.client.model.Aggregates
 import com.netgrif.quartz.mongodb.Clocks
 import com.netgrif.quartz.mongodb.MongoHelper
 import com.netgrif.quartz.mongodb.util.Clock
 import com.netgrif.quartz.mongodb.util.Keys
+import org.bson.Document
 import org.quartz.TriggerKey
 import spock.lang.Shared
 import spock.lang.Specification
@@ -122,6 +124,29 @@ class LocksDaoTest extends Specification {
         counter.get() == 3
     }
 
+    def 'should leave out triggers with live locks'() {
+        given:
+        def dao = createDao()
+        (1..5).each { MongoHelper.addTrigger([keyName: "n$it".toString(), keyGroup: 'g1']) }
+        addLock('n1', Keys.LockType.t, 'other', 5000)
+        addLock('n2', Keys.LockType.t, 'other', 100)
+        addLock('n3', Keys.LockType.t, 'defunct', 5000)
+        addLock('n5', Keys.LockType.j, 'other', 5000)
+
+        when:
+        def pipeline = [Aggregates.match(new Document())] +
+                dao.createLiveLockExclusion(new Date(1000), ['defunct'])
+        def names = MongoHelper.getTriggersColl().aggregate(pipeline).collect { it.getString(Keys.KEY_NAME) }
+
+        then:
+        names.sort() == ['n2', 'n3', 'n4', 'n5']
+    }
+
+    def addLock(String name, Keys.LockType type, String id, long time) {
+        MongoHelper.addLock([(Keys.LOCK_TYPE): type.name(), (Keys.KEY_NAME): name, (Keys.KEY_GROUP): 'g1',
+                             instanceId: id, time: new Date(time)])
+    }
+
     def createDao() {
         createDao(testClock)
     }
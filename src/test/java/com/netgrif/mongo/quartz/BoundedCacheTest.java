@@ -0,0 +1,43 @@
+package com.netgrif.mongo.quartz;
+
+import com.netgrif.quartz.mongodb.util.BoundedCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void invalidEntryIsRemoved() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(2);
+        cache.put("a", "1");
+
+        assertNull(cache.get("a", value -> false));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void disabledCacheHoldsNothing() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(0);
+        cache.put("a", "1");
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,34 @@
+package com.netgrif.mongo.quartz;
+
+import com.netgrif.quartz.mongodb.clojure.DynamicClassLoadHelper;
+import org.junit.jupiter.api.Test;
+import org.quartz.Job;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DynamicClassLoadHelperTest {
+
+    private final DynamicClassLoadHelper helper = new DynamicClassLoadHelper();
+
+    @Test
+    public void reusesClassLoader() {
+        assertSame(helper.getClassLoader(), helper.getClassLoader());
+    }
+
+    @Test
+    public void loadsJobClass() throws ClassNotFoundException {
+        Class<? extends Job> loaded = helper.loadClass(DeadJob.DeadJob1.class.getName(), Job.class);
+
+        assertEquals(DeadJob.DeadJob1.class, loaded);
+        assertSame(loaded, helper.loadClass(DeadJob.DeadJob1.class.getName()));
+    }
+
+    @Test
+    public void invalidateReplacesClassLoader() {
+        ClassLoader loader = helper.getClassLoader();
+
+        helper.invalidate();
+
+        assertNotSame(loader, helper.getClassLoader());
+    }
+}
@@ -0,0 +1,62 @@
+package com.netgrif.mongo.quartz;
+
+import com.netgrif.quartz.mongodb.dao.IndexCatalog;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexCatalogTest {
+
+    @Test
+    public void indexScanIsNotReported() {
+        Document plan = explained(new Document("stage", "FETCH")
+                .append("inputStage", new Document("stage", "IXSCAN")
+                        .append("indexName", "state_1_nextFireTime_1")));
+
+        assertTrue(IndexCatalog.findOffendingStages(plan).isEmpty());
+    }
+
+    @Test
+    public void collectionScanAndInMemorySortAreReported() {
+        Document plan = explained(new Document("stage", "SORT")
+                .append("inputStage", new Document("stage", "COLLSCAN")));
+
+        assertEquals(Arrays.asList("COLLSCAN", "SORT"),
+                Arrays.asList(IndexCatalog.findOffendingStages(plan).toArray()));
+    }
+
+    @Test
+    public void stagesOfShardedPlansAreReported() {
+        Document shard = new Document("shardName", "rs0")
+                .append("winningPlan", new Document("stage", "COLLSCAN"));
+        Document plan = explained(new Document("stage", "SHARD_MERGE")
+                .append("shards", Collections.singletonList(shard)));
+
+        assertEquals(Collections.singleton("COLLSCAN"), IndexCatalog.findOffendingStages(plan));
+    }
+
+    @Test
+    public void mergeSortIsNotReported() {
+        Document plan = explained(new Document("stage", "SORT_MERGE")
+                .append("inputStages", Arrays.asList(
+                        new Document("stage", "IXSCAN"),
+                        new Document("stage", "IXSCAN"))));
+
+        assertTrue(IndexCatalog.findOffendingStages(plan).isEmpty());
+    }
+
+    @Test
+    public void planCheckIsParsedFromProperty() {
+        assertEquals(IndexCatalog.PlanCheck.WARN, IndexCatalog.PlanCheck.fromProperty(" warn "));
+        assertEquals(IndexCatalog.PlanCheck.FAIL, IndexCatalog.PlanCheck.fromProperty("FAIL"));
+        assertThrows(IllegalArgumentException.class, () -> IndexCatalog.PlanCheck.fromProperty("sometimes"));
+    }
+
+    private Document explained(Document winningPlan) {
+        return new Document("queryPlanner", new Document("winningPlan", winningPlan));
+    }
+}
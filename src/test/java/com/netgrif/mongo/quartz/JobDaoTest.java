@@ -0,0 +1,129 @@
+package com.netgrif.mongo.quartz;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.UpdateResult;
+import com.netgrif.quartz.mongodb.JobConverter;
+import com.netgrif.quartz.mongodb.JobDataConverter;
+import com.netgrif.quartz.mongodb.dao.JobDao;
+import com.netgrif.quartz.mongodb.util.QueryHelper;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.JobPersistenceException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class JobDaoTest {
+
+    @Mock
+    private MongoCollection<Document> jobCollection;
+
+    @Mock
+    private JobConverter jobConverter;
+
+    private JobDao jobDao;
+
+    private Document jobDoc;
+
+    @BeforeEach
+    public void setup() throws JobPersistenceException {
+        jobDao = new JobDao(jobCollection, new QueryHelper(), jobConverter, 10);
+        jobDoc = new JobConverter(null, new JobDataConverter(true))
+                .toDocument(newJob(), new JobKey("n1", "g1"))
+                .append("_id", new ObjectId())
+                .append(JobConverter.JOB_VERSION, 1L);
+    }
+
+    @Test
+    public void sameVersionIsConvertedOnce() throws JobPersistenceException {
+        when(jobConverter.toJobDetail(jobDoc)).thenReturn(newJob());
+
+        JobDetail first = jobDao.toJobDetail(jobDoc);
+        first.getJobDataMap().put("counter", 2);
+        JobDetail second = jobDao.toJobDetail(jobDoc);
+
+        assertNotSame(first, second);
+        assertEquals(1, second.getJobDataMap().getInt("counter"));
+        verify(jobConverter, times(1)).toJobDetail(jobDoc);
+        assertEquals(1, jobDao.getCache().getHits());
+    }
+
+    @Test
+    public void newVersionIsConvertedAgain() throws JobPersistenceException {
+        Document stored = new Document(jobDoc).append(JobConverter.JOB_VERSION, 2L);
+        when(jobConverter.toJobDetail(any(Document.class))).thenReturn(newJob());
+
+        jobDao.toJobDetail(jobDoc);
+        jobDao.toJobDetail(stored);
+
+        verify(jobConverter).toJobDetail(jobDoc);
+        verify(jobConverter).toJobDetail(stored);
+        assertEquals(0, jobDao.getCache().getHits());
+    }
+
+    @Test
+    public void nestedValuesAreCopied() throws JobPersistenceException {
+        JobDetail converted = newJob();
+        converted.getJobDataMap().put("items", new Document("a", 1));
+        when(jobConverter.toJobDetail(jobDoc)).thenReturn(converted);
+
+        JobDetail first = jobDao.toJobDetail(jobDoc);
+        ((Document) first.getJobDataMap().get("items")).append("b", 2);
+        JobDetail second = jobDao.toJobDetail(jobDoc);
+
+        assertEquals(new Document("a", 1), second.getJobDataMap().get("items"));
+        assertEquals(1, jobDao.getCache().getHits());
+    }
+
+    @Test
+    public void jobWithUncopyableValuesIsNotCached() throws JobPersistenceException {
+        when(jobConverter.toJobDetail(jobDoc)).thenAnswer(invocation -> {
+            JobDetail job = newJob();
+            job.getJobDataMap().put("holder", new StringBuilder("a"));
+            return job;
+        });
+
+        JobDetail first = jobDao.toJobDetail(jobDoc);
+        JobDetail second = jobDao.toJobDetail(jobDoc);
+
+        assertNotSame(first.getJobDataMap().get("holder"), second.getJobDataMap().get("holder"));
+        verify(jobConverter, times(2)).toJobDetail(jobDoc);
+    }
+
+    @Test
+    public void everyJobDataWriteStoresNewVersion() throws JobPersistenceException {
+        JobDetail job = newJob();
+        when(jobConverter.toJobDataUpdate(job)).thenAnswer(invocation ->
+                new Document("$unset", new Document("jobData.counter", "")));
+        when(jobCollection.updateOne(any(Bson.class), any(Bson.class))).thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        jobDao.storeJobData(job);
+        jobDao.storeJobData(job);
+
+        ArgumentCaptor<Bson> updates = ArgumentCaptor.forClass(Bson.class);
+        verify(jobCollection, times(2)).updateOne(any(Bson.class), updates.capture());
+        Object first = ((Document) updates.getAllValues().get(0)).get("$set", Document.class).get(JobConverter.JOB_VERSION);
+        Object second = ((Document) updates.getAllValues().get(1)).get("$set", Document.class).get(JobConverter.JOB_VERSION);
+        assertTrue(first instanceof ObjectId);
+        assertNotEquals(first, second);
+    }
+
+    private JobDetail newJob() {
+        return JobBuilder.newJob(DeadJob.DeadJob1.class)
+                .withIdentity("n1", "g1")
+                .usingJobData("counter", 1)
+                .build();
+    }
+}
@@ -1,17 +1,24 @@
 package com.netgrif.mongo.quartz;
 
 
+import com.netgrif.quartz.mongodb.CompactJobDataSerializer;
 import com.netgrif.quartz.mongodb.Constants;
 import com.netgrif.quartz.mongodb.JobDataConverter;
+import com.netgrif.quartz.mongodb.SnapshotJobDataMap;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.quartz.JobDataMap;
 import org.quartz.JobPersistenceException;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -138,6 +145,108 @@ public class JobDataConverterTest {
         assertMapEquals(createJobDataWithSerializableContent().getWrappedMap(), jobDataMap.getWrappedMap());
     }
 
+    @Test
+    public void testCompactRoundTripWorks() throws JobPersistenceException {
+        JobDataConverter converterCompact = new JobDataConverter(true, new CompactJobDataSerializer());
+        JobDataMap jobDataMap = createJobDataWithSerializableContent();
+        jobDataMap.put("long", 42L);
+        jobDataMap.put("date", new Date(1000));
+        jobDataMap.put("list", new ArrayList<>(Arrays.asList("a", 1, null)));
+        Document doc = new Document();
+
+        converterCompact.toDocument(jobDataMap, doc);
+        assertTrue(doc.get(Constants.JOB_DATA) instanceof Binary);
+
+        JobDataMap loaded = new JobDataMap();
+        assertTrue(converterCompact.toJobData(doc, loaded));
+        assertEquals(jobDataMap.getWrappedMap(), loaded.getWrappedMap());
+        // legacy converter reads binary job data too
+        JobDataMap legacy = new JobDataMap();
+        assertTrue(converterBase64.toJobData(doc, legacy));
+        assertEquals(jobDataMap.getWrappedMap(), legacy.getWrappedMap());
+    }
+
+    @Test
+    public void testCompactDecodesBase64() throws JobPersistenceException {
+        JobDataConverter converterCompact = new JobDataConverter(true, new CompactJobDataSerializer());
+        Document doc = new Document();
+        doc.put(Constants.JOB_DATA, base64);
+        JobDataMap jobDataMap = new JobDataMap();
+
+        assertTrue(converterCompact.toJobData(doc, jobDataMap));
+        assertEquals(createJobDataWithSerializableContent().getWrappedMap(), jobDataMap.getWrappedMap());
+    }
+
+    @Test
+    public void testLargeJobDataIsCompressed() throws JobPersistenceException {
+        JobDataConverter converterCompressing = new JobDataConverter(true, null, 1024);
+        JobDataMap jobDataMap = createJobDataWithSerializableContent();
+        jobDataMap.put("report", String.join(",", Collections.nCopies(1000, "parameter")));
+        Document doc = new Document();
+
+        converterCompressing.toDocument(jobDataMap, doc);
+        assertTrue(doc.get(Constants.JOB_DATA) instanceof Binary);
+        assertTrue(converterCompressing.getCompressedBytes() < converterCompressing.getCompressedRawBytes());
+
+        JobDataMap loaded = new JobDataMap();
+        assertTrue(converterBase64.toJobData(doc, loaded));
+        assertEquals(jobDataMap.getWrappedMap(), loaded.getWrappedMap());
+
+        // small job data stays base64
+        Document small = new Document();
+        converterCompressing.toDocument(createJobDataWithSerializableContent(), small);
+        assertEquals(base64, small.get(Constants.JOB_DATA));
+    }
+
+    @Test
+    public void testLazyJobDataIsReadOnAccess() {
+        Document doc = new Document();
+        doc.put(Constants.JOB_DATA, 'a' + base64);
+
+        JobDataMap jobDataMap = converterBase64.toLazyJobData(doc);
+        assertThrows(IllegalStateException.class, () -> jobDataMap.get("str"));
+    }
+
+    @Test
+    public void testUntouchedLazyJobDataIsStoredUnchanged() throws JobPersistenceException {
+        Document doc = new Document();
+        doc.put(Constants.JOB_DATA, base64);
+        JobDataMap jobDataMap = converterBase64.toLazyJobData(doc);
+
+        Document stored = new Document();
+        converterBase64.toDocument(jobDataMap, stored);
+        assertSame(base64, stored.get(Constants.JOB_DATA));
+
+        jobDataMap.put("added", 1);
+        assertEquals("123", jobDataMap.getString("str"));
+        assertEquals(1, jobDataMap.getInt("added"));
+        converterBase64.toDocument(jobDataMap, stored);
+        assertNotEquals(base64, stored.get(Constants.JOB_DATA));
+    }
+
+    @Test
+    public void testPlainUpdateContainsChangedKeysOnly() {
+        SnapshotJobDataMap jobDataMap = new SnapshotJobDataMap();
+        jobDataMap.put("counter", 1);
+        jobDataMap.put("name", "report");
+        jobDataMap.put("old", true);
+        jobDataMap.put("nested", new Document("a", 1));
+        jobDataMap.takeSnapshot();
+
+        jobDataMap.put("counter", 2);
+        jobDataMap.remove("old");
+        ((Document) jobDataMap.get("nested")).put("a", 2);
+
+        Document update = converterPlain.toJobDataUpdate(jobDataMap);
+        assertEquals(new Document("$set", new Document(Constants.JOB_DATA_PLAIN + ".counter", 2)
+                        .append(Constants.JOB_DATA_PLAIN + ".nested", new Document("a", 2)))
+                .append("$unset", new Document(Constants.JOB_DATA_PLAIN + ".old", "")), update);
+        assertNull(converterBase64.toJobDataUpdate(jobDataMap));
+
+        jobDataMap.put("dotted.key", 1);
+        assertNull(converterPlain.toJobDataUpdate(jobDataMap));
+    }
+
     private JobDataMap createJobDataWithSerializableContent() {
         Foo foo = new Foo(new Bar("abc"), "def");
         Map<String, Object> map = new HashMap<>();
@@ -160,6 +269,9 @@ public class JobDataConverterTest {
     @ToString
     @EqualsAndHashCode
     static class Foo implements Serializable {
+        // the one of base64 fixtures above
+        private static final long serialVersionUID = 7178484203271643868L;
+
         Bar bar;
         String str;
 
@@ -172,6 +284,8 @@ public class JobDataConverterTest {
     @ToString
     @EqualsAndHashCode
     static class Bar implements Serializable {
+        private static final long serialVersionUID = 2207456024696807551L;
+
         String str;
 
         public Bar(String str) {
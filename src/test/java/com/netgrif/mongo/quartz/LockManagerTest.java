@@ -3,12 +3,16 @@ package com.netgrif.mongo.quartz;
 import com.mongodb.MongoWriteException;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.netgrif.quartz.mongodb.AcquisitionMode;
 import com.netgrif.quartz.mongodb.Constants;
 import com.netgrif.quartz.mongodb.LockManager;
 import com.netgrif.quartz.mongodb.dao.LocksDao;
+import com.netgrif.quartz.mongodb.dao.TriggerDao;
 import com.netgrif.quartz.mongodb.util.ExpiryCalculator;
 import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -16,12 +20,23 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
 import org.quartz.TriggerKey;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -33,6 +48,9 @@ public class LockManagerTest {
     @Mock
     private ExpiryCalculator expiryCalc;
 
+    @Mock
+    private TriggerDao triggerDao;
+
     @InjectMocks
     private LockManager manager;
 
@@ -46,7 +64,7 @@ public class LockManagerTest {
     private MongoWriteException newWriteException() {
         return new MongoWriteException(
                 new WriteError(1, "Rly!", BsonDocument.parse("{}")),
-                new ServerAddress());
+                new ServerAddress(), Collections.<String>emptySet());
     }
 
     @Test
@@ -55,6 +73,20 @@ public class LockManagerTest {
         verify(locksDao).lockTrigger(tkey);
     }
 
+    @Test
+    public void tryLockShouldReportCreatedLock() {
+        when(locksDao.lockTrigger(tkey)).thenReturn(true);
+
+        assertTrue(manager.tryLock(tkey));
+    }
+
+    @Test
+    public void tryLockShouldFailWhenTriggerIsAlreadyLocked() {
+        when(locksDao.lockTrigger(tkey)).thenReturn(false);
+
+        assertFalse(manager.tryLock(tkey));
+    }
+
     @Test
     public void tryLockCannotGetExistingLockForExpirationCheck() {
         doThrow(newWriteException()).when(locksDao).lockTrigger(tkey);
@@ -88,5 +120,96 @@ public class LockManagerTest {
         assert manager.relockExpired(tkey);
     }
 
+    @Test
+    public void acquireShouldClaimWaitingTrigger() {
+        LockManager claiming = claimingManager();
+        when(triggerDao.claim(eq(tkey), any(), any(), any()))
+                .thenReturn(new Document(Constants.TRIGGER_STATE, Constants.STATE_WAITING));
+
+        assertEquals(LockManager.Acquisition.ACQUIRED, claiming.acquire(tkey, null));
+        verifyNoInteractions(locksDao);
+    }
+
+    @Test
+    public void acquireShouldReportTakenOverClaimAsExpired() {
+        LockManager claiming = claimingManager();
+        when(triggerDao.claim(eq(tkey), any(), any(), any()))
+                .thenReturn(new Document(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED));
+
+        assertEquals(LockManager.Acquisition.EXPIRED, claiming.acquire(tkey, null));
+    }
+
+    @Test
+    public void acquireShouldFailWhenTriggerIsClaimedByOthers() {
+        LockManager claiming = claimingManager();
+        when(triggerDao.claim(eq(tkey), any(), any(), any())).thenReturn(null);
+
+        assertEquals(LockManager.Acquisition.NONE, claiming.acquire(tkey, null));
+    }
+
+    @Test
+    public void acquireShouldLockTriggersInOneBulkAndRelockExpired() {
+        TriggerKey held = new TriggerKey("n2", "g1");
+        TriggerKey expired = new TriggerKey("n3", "g1");
+        Date lockTime = new Date(123);
+        Document heldLock = new Document(Constants.LOCK_TIME, new Date());
+        Document expiredLock = new Document(Constants.LOCK_TIME, lockTime);
+        when(locksDao.lockTriggers(Arrays.asList(tkey, held, expired))).thenReturn(Collections.singleton(0));
+        Map<TriggerKey, Document> locks = new HashMap<TriggerKey, Document>();
+        locks.put(held, heldLock);
+        locks.put(expired, expiredLock);
+        when(locksDao.findTriggerLocks(Arrays.asList(held, expired))).thenReturn(locks);
+        when(expiryCalc.isTriggerLockExpired(heldLock)).thenReturn(false);
+        when(expiryCalc.isTriggerLockExpired(expiredLock)).thenReturn(true);
+        when(locksDao.relock(expired, lockTime)).thenReturn(true);
+
+        assertEquals(Arrays.asList(LockManager.Acquisition.ACQUIRED, LockManager.Acquisition.NONE,
+                LockManager.Acquisition.EXPIRED), manager.acquire(Arrays.asList(tkey, held, expired), null));
+        verify(locksDao, never()).lockTrigger(any());
+    }
+
+    @Test
+    public void claimingShouldNotExcludeLockedCandidates() {
+        assertTrue(claimingManager().createLiveLockExclusion().isEmpty());
+        verifyNoInteractions(locksDao);
+    }
+
+    @Test
+    public void lockingShouldExcludeLiveLocksOfOthers() {
+        Date expiredBefore = new Date(123);
+        List<String> defunct = Collections.singletonList("defunct");
+        List<Bson> stages = Collections.singletonList(new Document());
+        when(expiryCalc.claimExpiredBefore()).thenReturn(expiredBefore);
+        when(expiryCalc.findDefunctSchedulers()).thenReturn(defunct);
+        when(locksDao.createLiveLockExclusion(expiredBefore, defunct)).thenReturn(stages);
+
+        assertEquals(stages, manager.createLiveLockExclusion());
+    }
+
+    @Test
+    public void lockingShouldNotAddClaimFields() {
+        assertTrue(manager.acquiredTriggerFields().isEmpty());
+        assertNull(manager.createExpiredClaimsFilter());
+    }
+
+    @Test
+    public void lockJobsShouldReportPositionsOfJobsNotLocked() {
+        JobDetail concurrent = JobBuilder.newJob(Job.class).withIdentity("concurrent").build();
+        JobDetail first = JobBuilder.newJob(NonConcurrentJob.class).withIdentity("first").build();
+        JobDetail second = JobBuilder.newJob(NonConcurrentJob.class).withIdentity("second").build();
+        when(locksDao.lockJobs(Arrays.asList(first, second))).thenReturn(Collections.singletonList(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1)));
+
+        assertEquals(Collections.singleton(2), manager.lockJobs(Arrays.asList(concurrent, first, second)));
+    }
+
+    @DisallowConcurrentExecution
+    private interface NonConcurrentJob extends Job {
+    }
+
+    private LockManager claimingManager() {
+        return new LockManager(locksDao, expiryCalc, triggerDao, AcquisitionMode.CLAIM);
+    }
+
 
 }
@@ -0,0 +1,82 @@
+package com.netgrif.mongo.quartz;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteInsert;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.netgrif.quartz.mongodb.dao.LocksDao;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.quartz.TriggerKey;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LocksDaoTest {
+
+    private static final List<TriggerKey> KEYS = Arrays.asList(new TriggerKey("n1", "g1"), new TriggerKey("n2", "g1"));
+
+    @Mock
+    private MongoCollection<Document> locksCollection;
+
+    private LocksDao locksDao;
+
+    @BeforeEach
+    public void setup() {
+        locksDao = new LocksDao(locksCollection, Clock.SYSTEM_CLOCK, "node1");
+    }
+
+    @Test
+    public void triggersLockedElsewhereAreLeftOut() {
+        when(locksCollection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(bulkFailure(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1), null));
+
+        assertEquals(Collections.singleton(0), locksDao.lockTriggers(KEYS));
+    }
+
+    @Test
+    public void otherLockErrorsAreThrown() {
+        MongoBulkWriteException failure = bulkFailure(
+                new BulkWriteError(2, "bad value", new BsonDocument(), 1), null);
+        when(locksCollection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(failure);
+
+        assertSame(failure, assertThrows(MongoBulkWriteException.class, () -> locksDao.lockTriggers(KEYS)));
+    }
+
+    @Test
+    public void writeConcernErrorsAreThrown() {
+        MongoBulkWriteException failure = bulkFailure(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1),
+                new WriteConcernError(64, "WriteConcernFailed", "waiting for replication timed out",
+                        new BsonDocument()));
+        when(locksCollection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(failure);
+
+        assertThrows(MongoBulkWriteException.class, () -> locksDao.lockTriggers(KEYS));
+    }
+
+    private static MongoBulkWriteException bulkFailure(BulkWriteError error, WriteConcernError concernError) {
+        BulkWriteResult result = BulkWriteResult.acknowledged(0, 0, 0, 0,
+                Collections.singletonList(new BulkWriteUpsert(0, new BsonObjectId())),
+                Collections.<BulkWriteInsert>emptyList());
+        return new MongoBulkWriteException(result, Collections.singletonList(error), concernError,
+                new ServerAddress(), Collections.<String>emptySet());
+    }
+}
@@ -0,0 +1,135 @@
+package com.netgrif.mongo.quartz;
+
+import com.netgrif.quartz.mongodb.JobDataConverter;
+import com.netgrif.quartz.mongodb.trigger.TriggerConverter;
+import com.netgrif.quartz.mongodb.trigger.TriggerPropertiesConverter;
+import com.netgrif.quartz.mongodb.trigger.TriggerTypeRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.CronTrigger;
+import org.quartz.DailyTimeIntervalScheduleBuilder;
+import org.quartz.DailyTimeIntervalTrigger;
+import org.quartz.JobPersistenceException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.SimpleTrigger;
+import org.quartz.TimeOfDay;
+import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+import org.quartz.impl.triggers.CronTriggerImpl;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+import org.quartz.spi.OperableTrigger;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TriggerConverterTest {
+
+    private final TriggerConverter converter = new TriggerConverter(null, new JobDataConverter(true));
+
+    @Test
+    public void simpleTriggerRoundTrip() throws JobPersistenceException {
+        OperableTrigger trigger = (OperableTrigger) TriggerBuilder.newTrigger()
+                .withIdentity("n1", "g1")
+                .withSchedule(SimpleScheduleBuilder.repeatSecondlyForTotalCount(5, 10))
+                .usingJobData("counter", 1)
+                .build();
+
+        SimpleTrigger loaded = (SimpleTrigger) roundTrip(trigger);
+
+        assertEquals(trigger.getKey(), loaded.getKey());
+        assertEquals(4, loaded.getRepeatCount());
+        assertEquals(10000, loaded.getRepeatInterval());
+        assertEquals(1, loaded.getJobDataMap().getInt("counter"));
+    }
+
+    @Test
+    public void cronTriggerRoundTrip() throws JobPersistenceException {
+        OperableTrigger trigger = (OperableTrigger) TriggerBuilder.newTrigger()
+                .withIdentity("n2", "g1")
+                .withSchedule(CronScheduleBuilder.cronSchedule("0 0/5 * * * ?")
+                        .inTimeZone(TimeZone.getTimeZone("Europe/Bratislava")))
+                .build();
+
+        CronTrigger first = (CronTrigger) roundTrip(trigger);
+        CronTrigger second = (CronTrigger) roundTrip(trigger);
+
+        ((CronTriggerImpl) first).setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        assertNotSame(first, second);
+        assertEquals("0 0/5 * * * ?", second.getCronExpression());
+        assertEquals("Europe/Bratislava", second.getTimeZone().getID());
+        assertEquals("Europe/Bratislava", ((CronTrigger) roundTrip(trigger)).getTimeZone().getID());
+    }
+
+    @Test
+    public void dailyTimeIntervalTriggerRoundTrip() throws JobPersistenceException {
+        OperableTrigger trigger = (OperableTrigger) TriggerBuilder.newTrigger()
+                .withIdentity("n3", "g1")
+                .withSchedule(DailyTimeIntervalScheduleBuilder.dailyTimeIntervalSchedule()
+                        .startingDailyAt(TimeOfDay.hourAndMinuteOfDay(8, 30))
+                        .endingDailyAt(TimeOfDay.hourAndMinuteOfDay(17, 0))
+                        .withIntervalInMinutes(15))
+                .build();
+
+        DailyTimeIntervalTrigger first = (DailyTimeIntervalTrigger) roundTrip(trigger);
+        DailyTimeIntervalTrigger second = (DailyTimeIntervalTrigger) roundTrip(trigger);
+
+        assertEquals(TimeOfDay.hourAndMinuteOfDay(8, 30), second.getStartTimeOfDay());
+        assertEquals(TimeOfDay.hourAndMinuteOfDay(17, 0), second.getEndTimeOfDay());
+        assertSame(first.getStartTimeOfDay(), second.getStartTimeOfDay());
+    }
+
+    @Test
+    public void registeredTriggerTypeRoundTrip() throws JobPersistenceException {
+        TriggerTypeRegistry registry = new TriggerTypeRegistry();
+        registry.register(TaggedTrigger.class, TaggedTrigger::new, new TaggedTriggerPropertiesConverter());
+        TriggerConverter converter = new TriggerConverter(null, new JobDataConverter(true), registry);
+        TaggedTrigger trigger = new TaggedTrigger();
+        trigger.setKey(new TriggerKey("n4", "g1"));
+        trigger.setStartTime(new Date());
+        trigger.tag = "billing";
+
+        Document doc = converter.toDocument(trigger, new ObjectId());
+        TaggedTrigger loaded = (TaggedTrigger) converter.toTriggerWithJobDocument(doc, null);
+
+        assertEquals("billing", loaded.tag);
+    }
+
+    public static class TaggedTrigger extends SimpleTriggerImpl {
+        private static final long serialVersionUID = 1L;
+
+        String tag;
+
+        @Override
+        public boolean hasAdditionalProperties() {
+            return true;
+        }
+    }
+
+    private static class TaggedTriggerPropertiesConverter extends TriggerPropertiesConverter {
+
+        @Override
+        protected boolean canHandle(OperableTrigger trigger) {
+            return trigger instanceof TaggedTrigger;
+        }
+
+        @Override
+        public Document injectExtraPropertiesForInsert(OperableTrigger trigger, Document original) {
+            return original.append("tag", ((TaggedTrigger) trigger).tag);
+        }
+
+        @Override
+        public void setExtraPropertiesAfterInstantiation(OperableTrigger trigger, Document stored) {
+            ((TaggedTrigger) trigger).tag = stored.getString("tag");
+        }
+    }
+
+    private OperableTrigger roundTrip(OperableTrigger trigger) throws JobPersistenceException {
+        Document doc = converter.toDocument(trigger, new ObjectId());
+        return converter.toTriggerWithJobDocument(doc, null);
+    }
+}
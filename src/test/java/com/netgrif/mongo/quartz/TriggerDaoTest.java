@@ -0,0 +1,167 @@
+package com.netgrif.mongo.quartz;
+
+import com.mongodb.bulk.BulkWriteInsert;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.TriggerLeases;
+import com.netgrif.quartz.mongodb.cluster.BucketPartitioner;
+import com.netgrif.quartz.mongodb.dao.TriggerDao;
+import com.netgrif.quartz.mongodb.trigger.TriggerConverter;
+import com.netgrif.quartz.mongodb.util.Keys;
+import com.netgrif.quartz.mongodb.util.QueryHelper;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.quartz.TriggerKey;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TriggerDaoTest {
+
+    private static final TriggerKey WRITTEN = new TriggerKey("n1", "g1");
+    private static final TriggerKey UNTOUCHED = new TriggerKey("n2", "g2");
+
+    @Mock
+    private MongoCollection<Document> triggerCollection;
+
+    @Mock
+    private TriggerConverter triggerConverter;
+
+    @Mock
+    private TriggerLeases triggerLeases;
+
+    @Mock
+    private FindIterable<Document> found;
+
+    private TriggerDao triggerDao;
+
+    @BeforeEach
+    public void setup() {
+        triggerDao = new TriggerDao(triggerCollection, new QueryHelper(), triggerConverter);
+        triggerDao.setTriggerLeases(triggerLeases);
+    }
+
+    @Test
+    public void onlyLeasesOfTriggersWrittenByFilterAreEvicted() {
+        when(triggerLeases.getLeasedKeys()).thenReturn(new HashSet<TriggerKey>(Arrays.asList(WRITTEN, UNTOUCHED)));
+        finds(new Document(Keys.KEY_NAME, WRITTEN.getName()).append(Keys.KEY_GROUP, WRITTEN.getGroup()));
+
+        triggerDao.setStateInGroups(Collections.singletonList("g1"), "paused");
+
+        verify(triggerLeases).evict(Collections.singletonList(WRITTEN));
+        verify(triggerLeases, never()).evictAll();
+    }
+
+    @Test
+    public void nothingIsReadWithoutLeases() {
+        when(triggerLeases.getLeasedKeys()).thenReturn(Collections.<TriggerKey>emptySet());
+
+        triggerDao.removeByJobId("job");
+
+        verify(triggerCollection, never()).find(any(Bson.class));
+        verify(triggerLeases, never()).evict(anyCollection());
+        verify(triggerLeases).requestRefill();
+    }
+
+    @Test
+    public void resumeLeavesTriggersClaimedByNodesAlone() {
+        when(triggerLeases.getLeasedKeys()).thenReturn(Collections.<TriggerKey>emptySet());
+
+        triggerDao.setStateInAll(Constants.STATE_WAITING);
+        triggerDao.setState(WRITTEN, Constants.STATE_WAITING);
+
+        ArgumentCaptor<Bson> all = ArgumentCaptor.forClass(Bson.class);
+        verify(triggerCollection).updateMany(all.capture(), any(Bson.class));
+        assertTrue(excludesClaimed(all.getValue()));
+        ArgumentCaptor<Bson> one = ArgumentCaptor.forClass(Bson.class);
+        verify(triggerCollection).updateOne(one.capture(), any(Bson.class));
+        assertTrue(excludesClaimed(one.getValue()));
+        assertTrue(one.getValue().toBsonDocument().toJson().contains(WRITTEN.getName()));
+    }
+
+    @Test
+    public void pauseAppliesToClaimedTriggers() {
+        triggerDao.setState(WRITTEN, Constants.STATE_PAUSED);
+
+        ArgumentCaptor<Bson> one = ArgumentCaptor.forClass(Bson.class);
+        verify(triggerCollection).updateOne(one.capture(), any(Bson.class));
+        assertFalse(excludesClaimed(one.getValue()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bucketsAreStoredForTriggersWithoutOne() {
+        ObjectId id = new ObjectId();
+        finds(new Document("_id", id).append(Keys.KEY_NAME, WRITTEN.getName()).append(Keys.KEY_GROUP, WRITTEN.getGroup()));
+        when(triggerCollection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(
+                BulkWriteResult.acknowledged(0, 1, 0, 1, Collections.<BulkWriteUpsert>emptyList(),
+                        Collections.<BulkWriteInsert>emptyList()));
+
+        assertEquals(1, triggerDao.assignBuckets());
+
+        ArgumentCaptor<List<WriteModel<Document>>> writes = ArgumentCaptor.forClass(List.class);
+        verify(triggerCollection).bulkWrite(writes.capture(), any(BulkWriteOptions.class));
+        UpdateOneModel<Document> write = (UpdateOneModel<Document>) writes.getValue().get(0);
+        assertEquals(new BsonInt32(BucketPartitioner.bucketOf(WRITTEN)), write.getUpdate().toBsonDocument()
+                .getDocument("$set").get(Constants.TRIGGER_BUCKET));
+        assertTrue(write.getFilter().toBsonDocument().toJson().contains(id.toHexString()));
+    }
+
+    @Test
+    public void updateIsStampedAsCopy() {
+        triggerDao.setInstanceId("node1");
+        Document update = new Document("$set", new Document(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(1000)));
+
+        Document written = triggerDao.update(WRITTEN, update);
+
+        assertFalse(update.get("$set", Document.class).containsKey(Constants.TRIGGER_CHANGED_BY));
+        assertTrue(TriggerDao.isChangedBy(
+                written.get("$set", Document.class).getString(Constants.TRIGGER_CHANGED_BY), "node1"));
+        verify(triggerCollection).updateOne(any(Bson.class), eq(written));
+    }
+
+    private static boolean excludesClaimed(Bson filter) {
+        BsonDocument notClaimed = new BsonDocument(Constants.TRIGGER_STATE,
+                new BsonDocument("$ne", new BsonString(Constants.STATE_ACQUIRED)));
+        BsonDocument rendered = filter.toBsonDocument();
+        return rendered.equals(notClaimed)
+                || rendered.containsKey("$and") && rendered.getArray("$and").contains(notClaimed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void finds(Document... triggers) {
+        Iterator<Document> it = Arrays.asList(triggers).iterator();
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> it.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> it.next());
+        when(triggerCollection.find(any(Bson.class))).thenReturn(found);
+        when(found.projection(any(Bson.class))).thenReturn(found);
+        when(found.iterator()).thenReturn(cursor);
+    }
+}
@@ -0,0 +1,67 @@
+package com.netgrif.mongo.quartz;
+
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.trigger.TriggerDelta;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TriggerDeltaTest {
+
+    @Test
+    public void onlyChangedFieldsAreSet() {
+        Document loaded = trigger(new Date(1000)).append("timesTriggered", 1);
+        Document current = trigger(new Date(2000)).append("timesTriggered", 2);
+
+        Document update = TriggerDelta.diff(loaded, current, false);
+
+        assertEquals(new Document("$set", new Document(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(2000))
+                .append("timesTriggered", 2)), update);
+    }
+
+    @Test
+    public void unchangedTriggerNeedsNoUpdate() {
+        assertTrue(TriggerDelta.diff(trigger(new Date(1000)), trigger(new Date(1000)), false).isEmpty());
+    }
+
+    @Test
+    public void removedFieldsAreUnset() {
+        Document loaded = trigger(new Date(1000)).append("endTime", new Date(5000));
+        Document current = trigger(new Date(1000));
+
+        assertEquals(new Document("$unset", new Document("endTime", "")),
+                TriggerDelta.diff(loaded, current, false));
+    }
+
+    @Test
+    public void stateAndJobDataAreLeftAlone() {
+        Document loaded = trigger(new Date(1000))
+                .append(Constants.TRIGGER_STATE, Constants.STATE_ACQUIRED)
+                .append(Constants.JOB_DATA, "rO0AB...");
+        Document current = trigger(new Date(1000))
+                .append(Constants.TRIGGER_STATE, Constants.STATE_WAITING);
+
+        assertTrue(TriggerDelta.diff(loaded, current, false).isEmpty());
+        assertEquals(new Document("$unset", new Document(Constants.JOB_DATA, "")),
+                TriggerDelta.diff(loaded, current, true));
+    }
+
+    @Test
+    public void appliedUpdateGivesStoredDocument() {
+        Document loaded = trigger(new Date(1000)).append("endTime", new Date(5000));
+        Document current = trigger(new Date(2000));
+
+        Document stored = TriggerDelta.apply(loaded, TriggerDelta.diff(loaded, current, false));
+
+        assertEquals(current, stored);
+    }
+
+    private Document trigger(Date nextFireTime) {
+        return new Document("keyName", "n1")
+                .append("keyGroup", "g1")
+                .append(Constants.TRIGGER_NEXT_FIRE_TIME, nextFireTime);
+    }
+}
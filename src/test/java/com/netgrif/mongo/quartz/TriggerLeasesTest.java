@@ -0,0 +1,120 @@
+package com.netgrif.mongo.quartz;
+
+import com.netgrif.quartz.mongodb.LockManager;
+import com.netgrif.quartz.mongodb.TriggerLeases;
+import com.netgrif.quartz.mongodb.TriggerRunner;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.quartz.JobPersistenceException;
+import org.quartz.TriggerKey;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TriggerLeasesTest {
+
+    private static final long CLAIM_AHEAD_MILLIS = 60000;
+
+    @Mock
+    private TriggerRunner triggerRunner;
+
+    @Mock
+    private LockManager lockManager;
+
+    @Mock
+    private SchedulerSignaler signaler;
+
+    private TriggerLeases leases;
+
+    @AfterEach
+    public void shutdown() {
+        if (leases != null) {
+            leases.shutdown();
+        }
+    }
+
+    @Test
+    public void leasedTriggersAreTakenWhenDue() throws JobPersistenceException {
+        long now = System.currentTimeMillis();
+        OperableTrigger soon = newTrigger("soon", now + 1000);
+        OperableTrigger later = newTrigger("later", now + 30000);
+        startLeasing(soon, later);
+
+        List<OperableTrigger> due = leases.acquireNext(now, 10, 5000);
+
+        assertEquals(Collections.singletonList(soon), due);
+        assertEquals(Collections.singletonList(later), leases.acquireNext(now + 30000, 10, 0));
+        verify(lockManager, never()).unlockAcquiredTrigger(any(TriggerKey.class));
+    }
+
+    @Test
+    public void releasedTriggerIsLeasedAgainAsStored() throws JobPersistenceException {
+        long now = System.currentTimeMillis();
+        OperableTrigger later = newTrigger("later", now + 30000);
+        startLeasing(later);
+
+        leases.release(leases.acquireNext(now + 30000, 1, 0).get(0));
+
+        assertTrue(leases.acquireNext(now + 30000, 1, 0).isEmpty());
+        verify(triggerRunner).forgetLoaded(Collections.singletonList(later.getKey()));
+        verify(lockManager).unlockAcquiredTriggers(Collections.singletonList(later.getKey()));
+        verify(triggerRunner, timeout(1000).times(2)).acquireAhead(any(Date.class), anyInt());
+    }
+
+    @Test
+    public void evictedTriggersAreReleased() throws JobPersistenceException {
+        long now = System.currentTimeMillis();
+        OperableTrigger first = newTrigger("first", now + 1000);
+        OperableTrigger second = newTrigger("second", now + 2000);
+        startLeasing(first, second);
+
+        leases.evict(Collections.singleton(first.getKey()));
+
+        verify(lockManager).unlockAcquiredTriggers(Collections.singletonList(first.getKey()));
+        assertEquals(Collections.singletonList(second), leases.acquireNext(now + 2000, 10, 0));
+    }
+
+    @Test
+    public void pauseReleasesLeasesInBulk() throws JobPersistenceException {
+        long now = System.currentTimeMillis();
+        OperableTrigger first = newTrigger("first", now + 1000);
+        OperableTrigger second = newTrigger("second", now + 2000);
+        startLeasing(first, second);
+
+        leases.pause();
+
+        verify(lockManager).unlockAcquiredTriggers(Arrays.asList(first.getKey(), second.getKey()));
+        assertTrue(leases.acquireNext(now + 2000, 10, 0).isEmpty());
+    }
+
+    private void startLeasing(OperableTrigger... triggers) throws JobPersistenceException {
+        when(triggerRunner.acquireAhead(any(Date.class), anyInt()))
+                .thenReturn(Arrays.asList(triggers))
+                .thenReturn(Collections.<OperableTrigger>emptyList());
+        leases = new TriggerLeases(triggerRunner, lockManager, signaler, Clock.SYSTEM_CLOCK,
+                CLAIM_AHEAD_MILLIS, 5000, 100, "node1");
+        leases.start();
+        verify(signaler, timeout(1000)).signalSchedulingChange(triggers[0].getNextFireTime().getTime());
+    }
+
+    private static OperableTrigger newTrigger(String name, long nextFireTime) {
+        SimpleTriggerImpl trigger = new SimpleTriggerImpl();
+        trigger.setKey(new TriggerKey(name, "g1"));
+        trigger.setNextFireTime(new Date(nextFireTime));
+        return trigger;
+    }
+}
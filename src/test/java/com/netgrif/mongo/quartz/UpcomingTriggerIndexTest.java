@@ -0,0 +1,250 @@
+package com.netgrif.mongo.quartz;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.UpcomingTriggerIndex;
+import com.netgrif.quartz.mongodb.dao.TriggerDao;
+import com.netgrif.quartz.mongodb.trigger.TriggerConverter;
+import com.netgrif.quartz.mongodb.util.Clock;
+import com.netgrif.quartz.mongodb.util.QueryHelper;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.quartz.TriggerKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UpcomingTriggerIndexTest {
+
+    @Mock
+    private MongoCollection<Document> triggerCollection;
+
+    @Mock
+    private TriggerConverter triggerConverter;
+
+    @Mock
+    private UpcomingTriggerIndex upcomingTriggers;
+
+    @Mock
+    private Clock clock;
+
+    @Mock
+    private FindIterable<Document> found;
+
+    @Mock
+    private ChangeStreamIterable<Document> watched;
+
+    @Mock
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> changeStream;
+
+    private final BlockingQueue<ChangeStreamDocument<Document>> changes =
+            new LinkedBlockingQueue<ChangeStreamDocument<Document>>();
+    private final AtomicInteger polls = new AtomicInteger();
+    private UpcomingTriggerIndex index;
+
+    @AfterEach
+    public void shutdown() {
+        if (index != null) {
+            index.shutdown();
+        }
+    }
+
+    @Test
+    public void notStreamingIndexDoesNotSkipQueries() {
+        UpcomingTriggerIndex index = new UpcomingTriggerIndex(triggerCollection, 60000, Clock.SYSTEM_CLOCK, "node1");
+
+        assertTrue(index.mayHaveDueTriggers(new Date()));
+        assertEquals(0, index.getSkippedQueries());
+        verifyNoInteractions(triggerCollection);
+    }
+
+    @Test
+    public void replaysChangesStreamedWhileLoading() throws Exception {
+        ObjectId removed = new ObjectId();
+        ObjectId added = new ObjectId();
+        startIndex();
+        loads(() -> {
+            stream(change("delete", removed, null),
+                    change("insert", added, trigger(Constants.STATE_WAITING, 105000)));
+            return Collections.singletonList(new Document("_id", removed)
+                    .append(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(101000)));
+        });
+
+        assertFalse(index.mayHaveDueTriggers(new Date(102000)));
+        assertTrue(index.mayHaveDueTriggers(new Date(105000)));
+        verify(triggerCollection, times(1)).find(any(Bson.class));
+    }
+
+    @Test
+    public void answersFromIndexUntilInvalidated() throws Exception {
+        startIndex();
+        loads(Collections::emptyList);
+
+        assertFalse(index.mayHaveDueTriggers(new Date(101000)));
+        assertFalse(index.mayHaveDueTriggers(new Date(102000)));
+        assertEquals(2, index.getSkippedQueries());
+
+        index.invalidate();
+        assertTrue(index.mayHaveDueTriggers(new Date(102000)));
+        assertFalse(index.mayHaveDueTriggers(new Date(102000)));
+        assertEquals(3, index.getSkippedQueries());
+        verify(triggerCollection, times(1)).find(any(Bson.class));
+    }
+
+    @Test
+    public void truncatedLoadIsNotRepeatedUntilTriggersAreGone() throws Exception {
+        List<Document> due = new ArrayList<Document>();
+        for (int i = 0; i < 10000; i++) {
+            due.add(new Document("_id", new ObjectId())
+                    .append(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(100000 + i)));
+        }
+        startIndex();
+        loads(() -> due, Collections::emptyList);
+
+        assertTrue(index.mayHaveDueTriggers(new Date(200000)));
+        assertTrue(index.mayHaveDueTriggers(new Date(200000)));
+        verify(triggerCollection, times(1)).find(any(Bson.class));
+        // triggers before the cut are still answered from the index
+        assertTrue(index.mayHaveDueTriggers(new Date(100000)));
+        assertFalse(index.mayHaveDueTriggers(new Date(99999)));
+
+        List<ChangeStreamDocument<Document>> deleted = new ArrayList<ChangeStreamDocument<Document>>();
+        for (Document trigger : due.subList(0, 5001)) {
+            deleted.add(change("delete", trigger.getObjectId("_id"), null));
+        }
+        stream(deleted.toArray(new ChangeStreamDocument[0]));
+
+        assertFalse(index.mayHaveDueTriggers(new Date(200000)));
+        verify(triggerCollection, times(2)).find(any(Bson.class));
+    }
+
+    @Test
+    public void streamedChangesKeepCountsByFireTime() throws Exception {
+        ObjectId first = new ObjectId();
+        ObjectId second = new ObjectId();
+        startIndex();
+        loads(() -> Arrays.asList(
+                new Document("_id", first).append(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(105000)),
+                new Document("_id", second).append(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(105000))));
+        assertTrue(index.mayHaveDueTriggers(new Date(105000)));
+
+        stream(change("update", first, trigger(Constants.STATE_WAITING, 150000)));
+        assertTrue(index.mayHaveDueTriggers(new Date(105000)));
+
+        stream(change("update", second, trigger(Constants.STATE_COMPLETE, 105000)));
+        assertFalse(index.mayHaveDueTriggers(new Date(105000)));
+        assertTrue(index.mayHaveDueTriggers(new Date(150000)));
+
+        stream(change("update", first, trigger(Constants.STATE_PAUSED, 150000)));
+        assertFalse(index.mayHaveDueTriggers(new Date(150000)));
+        verify(triggerCollection, times(1)).find(any(Bson.class));
+    }
+
+    @Test
+    public void writtenTriggersInvalidateIndex() {
+        TriggerDao triggerDao = new TriggerDao(triggerCollection, new QueryHelper(), triggerConverter, upcomingTriggers);
+
+        triggerDao.setState(new TriggerKey("n1", "g1"), Constants.STATE_WAITING);
+
+        verify(upcomingTriggers).invalidate();
+    }
+
+    private void startIndex() throws Exception {
+        when(clock.millis()).thenReturn(100000L);
+        when(triggerCollection.watch()).thenReturn(watched);
+        when(watched.fullDocument(FullDocument.UPDATE_LOOKUP)).thenReturn(watched);
+        when(watched.maxAwaitTime(anyLong(), any(TimeUnit.class))).thenReturn(watched);
+        when(watched.cursor()).thenReturn(changeStream);
+        // the watching thread may not poll before a test which streams nothing ends
+        lenient().when(changeStream.tryNext()).thenAnswer(invocation -> {
+            polls.incrementAndGet();
+            return changes.poll(10, TimeUnit.MILLISECONDS);
+        });
+        index = new UpcomingTriggerIndex(triggerCollection, 60000, clock, "node1");
+        index.start();
+    }
+
+    /**
+     * Answer range queries with given triggers in turn, read when the query runs.
+     */
+    @SafeVarargs
+    private final void loads(LoadedTriggers... loads) {
+        when(triggerCollection.find(any(Bson.class))).thenReturn(found);
+        when(found.projection(any(Bson.class))).thenReturn(found);
+        when(found.sort(any(Bson.class))).thenReturn(found);
+        when(found.limit(anyInt())).thenReturn(found);
+        AtomicInteger load = new AtomicInteger();
+        when(found.iterator()).thenAnswer(invocation -> {
+            LoadedTriggers triggers = loads[Math.min(load.getAndIncrement(), loads.length - 1)];
+            return cursor(triggers.read().iterator());
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<Document> cursor(Iterator<Document> triggers) {
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> triggers.hasNext());
+        lenient().when(cursor.next()).thenAnswer(invocation -> triggers.next());
+        return cursor;
+    }
+
+    /**
+     * Stream changes and wait until the index has applied them.
+     */
+    @SafeVarargs
+    private final void stream(ChangeStreamDocument<Document>... streamed) throws InterruptedException {
+        changes.addAll(Arrays.asList(streamed));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!changes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // the next poll starts after the last change was applied
+        int taken = polls.get();
+        while (polls.get() <= taken && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(changes.isEmpty() && polls.get() > taken, "Changes were not streamed in time");
+    }
+
+    private static ChangeStreamDocument<Document> change(String operationType, ObjectId id, Document trigger) {
+        return new ChangeStreamDocument<Document>(operationType, new BsonDocument(), null, null, null,
+                trigger, null, new BsonDocument("_id", new BsonObjectId(id)), null, null, null, null, null,
+                null, null);
+    }
+
+    private static Document trigger(String state, long nextFireTime) {
+        return new Document(Constants.TRIGGER_STATE, state)
+                .append(Constants.TRIGGER_NEXT_FIRE_TIME, new Date(nextFireTime));
+    }
+
+    private interface LoadedTriggers {
+        List<Document> read() throws Exception;
+    }
+}
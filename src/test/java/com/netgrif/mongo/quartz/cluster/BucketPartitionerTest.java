@@ -0,0 +1,87 @@
+package com.netgrif.mongo.quartz.cluster;
+
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.cluster.BucketPartitioner;
+import com.netgrif.quartz.mongodb.cluster.ClusterSnapshot;
+import com.netgrif.quartz.mongodb.cluster.Scheduler;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.bson.BsonArray;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.Test;
+import org.quartz.TriggerKey;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class BucketPartitionerTest {
+
+    private static final List<String> NODES = Arrays.asList("node1", "node2", "node3");
+
+    @Test
+    public void bucketIsStableAndInRange() {
+        int bucket = BucketPartitioner.bucketOf(new TriggerKey("n1", "g1"));
+
+        assertEquals(bucket, BucketPartitioner.bucketOf(new TriggerKey("n1", "g1")));
+        assertTrue(bucket >= 0 && bucket < BucketPartitioner.BUCKET_COUNT);
+    }
+
+    @Test
+    public void liveNodesShareAllBuckets() {
+        Set<Integer> all = new HashSet<Integer>();
+        int total = 0;
+        for (String node : NODES) {
+            Set<Integer> buckets = BucketPartitioner.assignBuckets(NODES, node);
+            assertFalse(buckets.isEmpty());
+            total += buckets.size();
+            all.addAll(buckets);
+        }
+
+        assertEquals(BucketPartitioner.BUCKET_COUNT, total);
+        assertEquals(BucketPartitioner.BUCKET_COUNT, all.size());
+    }
+
+    @Test
+    public void defunctNodeBucketsMoveToOthersOnly() {
+        List<String> live = Arrays.asList("node1", "node2");
+
+        for (String node : live) {
+            Set<Integer> before = BucketPartitioner.assignBuckets(NODES, node);
+            Set<Integer> after = BucketPartitioner.assignBuckets(live, node);
+            assertTrue(after.containsAll(before));
+        }
+    }
+
+    @Test
+    public void standbyNodeOwnsNoBuckets() {
+        ClusterSnapshot snapshot = mock(ClusterSnapshot.class);
+        Clock clock = mock(Clock.class);
+        Scheduler standby = new Scheduler("sched", "node2", 10000, 1000, true);
+        when(snapshot.getInstanceId()).thenReturn("node1");
+        when(snapshot.getLiveSchedulers()).thenReturn(Arrays.asList(standby));
+        when(snapshot.isNotSelf(standby)).thenReturn(true);
+        when(clock.millis()).thenReturn(10000L);
+
+        BsonArray branches = new BucketPartitioner(snapshot, clock, 6000).createOwnTriggersFilter()
+                .toBsonDocument().getArray("$or");
+
+        assertEquals(BucketPartitioner.BUCKET_COUNT, branchOn(branches, Constants.TRIGGER_BUCKET, "$in")
+                .asArray().size());
+        assertEquals(7000, branchOn(branches, Constants.TRIGGER_NEXT_FIRE_TIME, "$lt")
+                .asDateTime().getValue());
+    }
+
+    private static BsonValue branchOn(BsonArray branches, String field, String operator) {
+        for (BsonValue branch : branches) {
+            BsonValue condition = branch.asDocument().get(field);
+            if (condition != null && condition.isDocument() && condition.asDocument().containsKey(operator)) {
+                return condition.asDocument().get(operator);
+            }
+        }
+        return fail("No " + operator + " on " + field + " in " + branches);
+    }
+}
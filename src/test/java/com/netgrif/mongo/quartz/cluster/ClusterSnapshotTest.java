@@ -0,0 +1,100 @@
+package com.netgrif.mongo.quartz.cluster;
+
+import com.netgrif.quartz.mongodb.Constants;
+import com.netgrif.quartz.mongodb.cluster.ClusterSnapshot;
+import com.netgrif.quartz.mongodb.cluster.Scheduler;
+import com.netgrif.quartz.mongodb.dao.SchedulerDao;
+import com.netgrif.quartz.mongodb.util.Clock;
+import com.netgrif.quartz.mongodb.util.ExpiryCalculator;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ClusterSnapshotTest {
+
+    private static final long CHECKIN_INTERVAL = 1000;
+
+    @Mock
+    private Clock clock;
+
+    private SchedulerDao schedulerDao;
+
+    private ClusterSnapshot snapshot;
+
+    @BeforeEach
+    public void setup() {
+        schedulerDao = mock(SchedulerDao.class, withSettings()
+                .useConstructor(null, "sched", "self", CHECKIN_INTERVAL, clock)
+                .defaultAnswer(CALLS_REAL_METHODS));
+        snapshot = new ClusterSnapshot(schedulerDao, clock, CHECKIN_INTERVAL);
+    }
+
+    @Test
+    public void answersFromOneReadUntilRefreshed() {
+        when(clock.millis()).thenReturn(10000L);
+        doReturn(Arrays.asList(
+                new Scheduler("sched", "other", 9000, CHECKIN_INTERVAL),
+                new Scheduler("another", "foreign", 9000, CHECKIN_INTERVAL)))
+                .when(schedulerDao).getAllByCheckinTime();
+
+        assertNotNull(snapshot.findInstance("other"));
+        assertNull(snapshot.findInstance("foreign"));
+        assertEquals(1, snapshot.getSchedulers().size());
+        assertEquals(0, snapshot.getAgeMillis());
+
+        verify(schedulerDao, times(1)).getAllByCheckinTime();
+    }
+
+    @Test
+    public void judgesDefunctByReadTimeInSnapshotOneIntervalOld() {
+        long interval = 7500;
+        ClusterSnapshot aged = new ClusterSnapshot(schedulerDao, clock, interval);
+        when(clock.millis()).thenReturn(100000L);
+        doReturn(Arrays.asList(
+                new Scheduler("sched", "live", 100000 - interval + 100, interval),
+                new Scheduler("sched", "defunct", 100000 - 3 * interval, interval)))
+                .when(schedulerDao).getAllByCheckinTime();
+        aged.refresh();
+
+        // "live" checked in on time after the read, only the snapshot doesn't have it
+        when(clock.millis()).thenReturn(100000L + interval + 200);
+        ExpiryCalculator calculator = new ExpiryCalculator(aged, clock, 60000, 60000, true);
+
+        assertFalse(aged.isDefunct("live"));
+        assertTrue(aged.isDefunct("defunct"));
+        assertEquals(Collections.singletonList("defunct"), calculator.findDefunctSchedulers());
+        assertFalse(calculator.isTriggerLockExpired(new Document(Constants.LOCK_INSTANCE_ID, "live")
+                .append(Constants.LOCK_TIME, new Date(100000))));
+        assertEquals(1, aged.getLiveSchedulers().size());
+        verify(schedulerDao, times(1)).getAllByCheckinTime();
+    }
+
+    @Test
+    public void removesOnlyStaleEntriesOfOtherInstances() {
+        when(clock.millis()).thenReturn(100000L);
+        doReturn(Arrays.asList(
+                new Scheduler("sched", "self", 1000, CHECKIN_INTERVAL),
+                new Scheduler("sched", "stale", 1000, CHECKIN_INTERVAL),
+                new Scheduler("sched", "live", 99000, CHECKIN_INTERVAL)))
+                .when(schedulerDao).getAllByCheckinTime();
+        doReturn(true).when(schedulerDao).remove("stale", 1000);
+
+        snapshot.refresh();
+
+        assertEquals(1, snapshot.removeStale(60000));
+        verify(schedulerDao).remove("stale", 1000);
+        verify(schedulerDao, never()).remove(eq("self"), anyLong());
+        verify(schedulerDao, never()).remove(eq("live"), anyLong());
+    }
+}
@@ -0,0 +1,87 @@
+package com.netgrif.mongo.quartz.cluster;
+
+import com.netgrif.quartz.mongodb.SchedulingChangeMode;
+import com.netgrif.quartz.mongodb.cluster.SchedulingChangeWatcher;
+import com.netgrif.quartz.mongodb.dao.TriggerDao;
+import com.netgrif.quartz.mongodb.util.Clock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.quartz.spi.SchedulerSignaler;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SchedulingChangeWatcherTest {
+
+    @Mock
+    private SchedulerSignaler signaler;
+
+    @Mock
+    private Clock clock;
+
+    private SchedulingChangeWatcher watcher;
+
+    @BeforeEach
+    public void setup() {
+        watcher = new SchedulingChangeWatcher(null, null, null, signaler, SchedulingChangeMode.AUTO, clock, "i1");
+    }
+
+    @Test
+    public void shouldSignalOnlyEarlierTimesWhileSignaledTimeIsPending() {
+        when(clock.millis()).thenReturn(1000L);
+
+        watcher.signalSchedulingChange(new Date(5000));
+        watcher.signalSchedulingChange(new Date(6000));
+        watcher.signalSchedulingChange(new Date(3000));
+
+        verify(signaler).signalSchedulingChange(5000);
+        verify(signaler).signalSchedulingChange(3000);
+        verifyNoMoreInteractions(signaler);
+    }
+
+    @Test
+    public void shouldSignalAgainAfterSignaledTimePassed() {
+        when(clock.millis()).thenReturn(1000L, 6000L);
+
+        watcher.signalSchedulingChange(new Date(5000));
+        watcher.signalSchedulingChange(new Date(7000));
+
+        verify(signaler).signalSchedulingChange(5000);
+        verify(signaler).signalSchedulingChange(7000);
+    }
+
+    @Test
+    public void shouldIgnoreTimesBeyondHorizon() {
+        SchedulingChangeWatcher watcher = new SchedulingChangeWatcher(null, null, null, signaler,
+                SchedulingChangeMode.AUTO, clock, "i1", null, null, 30000);
+        when(clock.millis()).thenReturn(1000L);
+
+        watcher.signalSchedulingChange(new Date(60000));
+        watcher.signalSchedulingChange(new Date(31000));
+
+        verify(signaler).signalSchedulingChange(31000);
+        verifyNoMoreInteractions(signaler);
+    }
+
+    @Test
+    public void shouldTellOwnChangesApart() {
+        assertTrue(TriggerDao.isChangedBy("i1#12", "i1"));
+        assertFalse(TriggerDao.isChangedBy("i1#2#12", "i1"));
+        assertFalse(TriggerDao.isChangedBy("i2#12", "i1"));
+        assertFalse(TriggerDao.isChangedBy(null, "i1"));
+    }
+
+    @Test
+    public void shouldIgnoreTriggersWithoutNextFireTime() {
+        watcher.signalSchedulingChange(null);
+
+        verifyNoInteractions(signaler);
+    }
+}